@@ -1,34 +1,78 @@
 package ch.epfl.imhof;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.HashMap;
 import java.lang.Integer;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Attributes, représente un ensemble d'attributs et la valeur qui leur est
  * associée. La classe attributes est une table associative immuable dont les
  * clés et les valeurs sont des chaines de caractères
- * 
+ *
+ * Les paires sont stockées dans deux tableaux parallèles triés par clé, et
+ * les chaînes sont partagées par toutes les tables : dans les données OSM,
+ * quelques milliers de combinaisons d'attributs suffisent à des millions
+ * d'entités. Pour la même raison, le bâtisseur retourne une seule instance
+ * par ensemble de paires. Les tables de partage ne référencent chaînes et
+ * instances que faiblement : celles qui ne sont plus utilisées par aucune
+ * table d'attributs sont libérées, de sorte qu'un programme qui lit de
+ * nombreux fichiers ne garde que les attributs des cartes encore utilisées.
+ * Elles ne sont pas verrouillées, plusieurs fils peuvent donc lire des
+ * fichiers simultanément.
+ *
  * @author Cédric Viaccoz (250396)
  * @author Matteo Giorla (246524)
  */
 
 public final class Attributes {
 
-    private final Map<String, String> attributes;
+    // une chaîne partagée reste atteignable tant qu'une table d'attributs
+    // l'utilise, et reste donc la seule de sa valeur
+    private static final WeakInterner<String> STRINGS = new WeakInterner<>();
+    private static final WeakInterner<Attributes> INSTANCES = new WeakInterner<>();
+
+    private final String[] keys;
+    private final String[] values;
+    private final int hashCode;
 
     /**
      * Constructeur d'attributes qui construit un ensemble d'attributs avec les
-     * paires clé/valeur présentes dans la table associative donnée
-     * 
+     * paires clé/valeur présentes dans la table associative donnée. Une
+     * paire de clé null (p.ex. un tag OSM sans attribut k) est ignorée.
+     *
      * @param attributes
      *            une table associative
      */
     public Attributes(Map<String, String> attributes) {
-        this.attributes = Collections
-                .unmodifiableMap(new HashMap<>(attributes));
+        String[] k = new String[attributes.size()];
+        int count = 0;
+        for (String key : attributes.keySet()) {
+            if (key != null) {
+                k[count++] = key;
+            }
+        }
+        if (count < k.length) {
+            k = Arrays.copyOf(k, count);
+        }
+        Arrays.sort(k);
+        String[] v = new String[k.length];
+        for (int i = 0; i < k.length; ++i) {
+            String value = attributes.get(k[i]);
+            v[i] = value == null ? null : STRINGS.intern(value);
+            k[i] = STRINGS.intern(k[i]);
+        }
+        this.keys = k;
+        this.values = v;
+        this.hashCode = 31 * Arrays.hashCode(k) + Arrays.hashCode(v);
     }
 
     /**
@@ -36,7 +80,7 @@ public final class Attributes {
      *         pas
      */
     public boolean isEmpty() {
-        return this.attributes.isEmpty();
+        return keys.length == 0;
     }
 
     /**
@@ -46,7 +90,14 @@ public final class Attributes {
      *         ou faux si ce n'est pas le cas
      */
     public boolean contains(String key) {
-        return this.attributes.containsKey(key);
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * @return l'ensemble non modifiable des clés de la table associative
+     */
+    public Set<String> keys() {
+        return new KeySet();
     }
 
     /**
@@ -55,7 +106,8 @@ public final class Attributes {
      * @return la valeur associée à la clé donnée en entrée
      */
     public String get(String key) {
-        return this.attributes.get(key);
+        int i = indexOf(key);
+        return i < 0 ? null : values[i];
     }
 
     /**
@@ -68,8 +120,9 @@ public final class Attributes {
      *         défaut si elle n'est pas présente
      */
     public String get(String key, String defaultValue) {
-        if (contains(key)) {
-            return this.attributes.get(key);
+        int i = indexOf(key);
+        if (i >= 0) {
+            return values[i];
         } else {
             return defaultValue;
         }
@@ -86,26 +139,159 @@ public final class Attributes {
      */
     public int get(String key, int defaultValue) {
         try {
-            return Integer.parseInt(this.attributes.get(key));
+            return Integer.parseInt(get(key));
         } catch (NumberFormatException e) {
             return defaultValue;
         }
     }
 
     /**
+     * Le résultat est partagé avec les autres tables ayant les mêmes paires.
+     *
      * @param keysToKeep
      *            la liste des clés dont il faut garder les paires clé/valeur de
      *            la table associative
      * @return objet de type Attributes, une nouvelle liste de paires
      */
     public Attributes keepOnlyKeys(Set<String> keysToKeep) {
-        HashMap<String, String> tempMap = new HashMap<String, String>();
-        for (String s : keysToKeep) {
-            if (this.attributes.containsKey(s)) {
-                tempMap.put(s, this.attributes.get(s));
+        Builder b = new Builder();
+        for (int i = 0; i < keys.length; ++i) {
+            if (keysToKeep.contains(keys[i])) {
+                b.put(keys[i], values[i]);
             }
         }
-        return new Attributes(tempMap);
+        return b.build();
+    }
+
+    @Override
+    public boolean equals(Object that) {
+        if (this == that) {
+            return true;
+        } else if (!(that instanceof Attributes)) {
+            return false;
+        }
+        Attributes a = (Attributes) that;
+        // les chaînes sont partagées : elles sont égales ssi identiques
+        if (hashCode != a.hashCode || keys.length != a.keys.length) {
+            return false;
+        }
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i] != a.keys[i] || values[i] != a.values[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    /**
+     * @return la position de la clé donnée dans le tableau des clés, ou un
+     *         nombre négatif si elle n'y est pas
+     */
+    private int indexOf(String key) {
+        return key == null ? -1 : Arrays.binarySearch(keys, key);
+    }
+
+    /**
+     * Table de partage sans verrou, qui ne référence ses valeurs que
+     * faiblement : les entrées des valeurs libérées sont retirées lors des
+     * appels suivants
+     */
+    private static final class WeakInterner<T> {
+        private final ConcurrentHashMap<Entry<T>, Entry<T>> entries = new ConcurrentHashMap<>();
+        private final ReferenceQueue<T> cleared = new ReferenceQueue<>();
+
+        /**
+         * @return l'instance partagée égale à la valeur donnée, qui devient
+         *         l'instance partagée s'il n'y en a pas encore
+         */
+        private T intern(T value) {
+            Reference<? extends T> r;
+            while ((r = cleared.poll()) != null) {
+                entries.remove(r);
+            }
+            Entry<T> entry = new Entry<>(value, cleared);
+            while (true) {
+                Entry<T> existing = entries.putIfAbsent(entry, entry);
+                if (existing == null) {
+                    return value;
+                }
+                T shared = existing.get();
+                if (shared != null) {
+                    return shared;
+                }
+                // la valeur partagée vient d'être libérée
+                entries.remove(existing, existing);
+            }
+        }
+
+        /**
+         * Référence faible égale à celles dont la valeur est égale ; une
+         * référence libérée n'est égale qu'à elle-même
+         */
+        private static final class Entry<T> extends WeakReference<T> {
+            private final int hashCode;
+
+            private Entry(T value, ReferenceQueue<T> queue) {
+                super(value, queue);
+                this.hashCode = value.hashCode();
+            }
+
+            @Override
+            public boolean equals(Object that) {
+                if (this == that) {
+                    return true;
+                } else if (!(that instanceof Entry)) {
+                    return false;
+                }
+                Object value = get();
+                return value != null && value.equals(((Entry<?>) that).get());
+            }
+
+            @Override
+            public int hashCode() {
+                return hashCode;
+            }
+        }
+    }
+
+    /**
+     * Vue non modifiable des clés de la table
+     */
+    private final class KeySet extends AbstractSet<String> {
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                private int next = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return next < keys.length;
+                }
+
+                @Override
+                public String next() {
+                    if (next == keys.length) {
+                        throw new NoSuchElementException();
+                    }
+                    return keys[next++];
+                }
+            };
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof String && indexOf((String) o) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return keys.length;
+        }
     }
 
     /**
@@ -127,11 +313,11 @@ public final class Attributes {
         }
 
         /**
-         * @return un objet de type Attributes
+         * @return un objet de type Attributes, partagé avec les autres
+         *         bâtisseurs ayant reçu les mêmes paires
          */
         public Attributes build() {
-
-            return new Attributes(this.attributes);
+            return INSTANCES.intern(new Attributes(this.attributes));
         }
     }
-}
\ No newline at end of file
+}
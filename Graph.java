@@ -18,6 +18,7 @@ import java.util.Collections;
 public final class Graph<N> {
 
     private final Map<N, Set<N>> neighbors;
+    private final Set<N> nodes;
 
     /**
      * construit un graphe non orienté avec la table d'adjacence donnée
@@ -28,9 +29,13 @@ public final class Graph<N> {
     public Graph(Map<N, Set<N>> neighbors) {
         Map<N, Set<N>> tempNeighbors = new HashMap<>();
         for (Map.Entry<N, Set<N>> entry : neighbors.entrySet()) {
-            tempNeighbors.put(entry.getKey(), new HashSet<>(entry.getValue()));
+            tempNeighbors.put(entry.getKey(), Collections
+                    .unmodifiableSet(new HashSet<>(entry.getValue())));
         }
-        this.neighbors = tempNeighbors;
+        // la copie garde l'ordre d'itération des nœuds qu'avaient les
+        // copies faites auparavant par nodes()
+        this.neighbors = new HashMap<>(tempNeighbors);
+        this.nodes = Collections.unmodifiableSet(this.neighbors.keySet());
     }
 
     /**
@@ -89,12 +94,11 @@ public final class Graph<N> {
     }
 
     /**
-     * @return l'ensemble des nœuds du graphe
+     * @return l'ensemble non modifiable des nœuds du graphe, qui n'est pas
+     *         copié
      */
     public Set<N> nodes() {
-        Map<N, Set<N>> tempMap = Collections.unmodifiableMap(new HashMap<>(
-                neighbors));
-        return tempMap.keySet();
+        return nodes;
     }
 
     /**
@@ -103,16 +107,17 @@ public final class Graph<N> {
      * 
      * @param node
      *            le noeud donné
-     * @return l'ensemble des noeuds voisins du noeud donné
+     * @return l'ensemble non modifiable des noeuds voisins du noeud donné,
+     *         qui n'est pas copié
      * @throws IllegalArgumentException
      *             si le noeud donné ne fait pas partie du graphe
      */
     public Set<N> neighborsOf(N node) throws IllegalArgumentException {
-        if (!neighbors.containsKey(node)) {
+        Set<N> nodeNeighbors = neighbors.get(node);
+        if (nodeNeighbors == null) {
             throw new IllegalArgumentException();
         } else {
-            return Collections.unmodifiableSet(new HashSet<>(neighbors
-                    .get(node)));
+            return nodeNeighbors;
         }
     }
 }
\ No newline at end of file
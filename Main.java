@@ -3,6 +3,8 @@ package ch.epfl.imhof;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.imageio.ImageIO;
 
@@ -14,6 +16,7 @@ import ch.epfl.imhof.dem.ReliefShader;
 import ch.epfl.imhof.geometry.Point;
 import ch.epfl.imhof.osm.OSMMap;
 import ch.epfl.imhof.osm.OSMMapReader;
+import ch.epfl.imhof.osm.OSMReadOptions;
 import ch.epfl.imhof.osm.OSMToGeoTransformer;
 import ch.epfl.imhof.painting.Color;
 import ch.epfl.imhof.painting.Java2DCanvas;
@@ -38,6 +41,9 @@ public class Main {
      */
     public static void main(String[] args) {
         final double MM_RADIUS = 1.7;
+        // marge autour de la zone dessinée (env. 50 m), pour que les entités
+        // juste hors du cadre mais dont le trait y déborde soient gardées
+        final double VIEW_MARGIN = Math.toRadians(0.0005);
 
         String osmFile = args[0];
         String hgtStringFile = args[1];
@@ -51,20 +57,32 @@ public class Main {
 
         Painter painter = SwissPainter.painter();
 
+        PointGeo pBL = new PointGeo(bottomLeftLongitude, bottomLeftLatitude);
+        PointGeo pTR = new PointGeo(topRightLongitude, topRightLatitude);
+
         Projection p = new CH1903Projection();
         OSMToGeoTransformer transformer = new OSMToGeoTransformer(p);
         OSMMap osmMap = null;
         try {
-            osmMap = OSMMapReader.readOSMFile(osmFile, true);
+            // plusieurs extraits voisins peuvent être donnés, séparés par
+            // des virgules
+            String[] osmFiles = osmFile.split(",");
+            if (osmFiles.length == 1) {
+                osmMap = OSMMapReader.readOSMFile(osmFile, true, pBL, pTR,
+                        VIEW_MARGIN);
+            } else {
+                OSMReadOptions.Builder options = new OSMReadOptions.Builder();
+                options.setBoundingBox(pBL, pTR, VIEW_MARGIN);
+                osmMap = OSMMapReader.readOSMFiles(Arrays.asList(osmFiles),
+                        true, options.build());
+            }
         } catch (IOException e) {
             e.printStackTrace();
         } catch (SAXException e) {
             e.printStackTrace();
         }
-        ch.epfl.imhof.Map map = transformer.transform(osmMap);
-
-        PointGeo pBL = new PointGeo(bottomLeftLongitude, bottomLeftLatitude);
-        PointGeo pTR = new PointGeo(topRightLongitude, topRightLatitude);
+        ch.epfl.imhof.Map map = transformer.transform(osmMap,
+                ForkJoinPool.commonPool());
 
         Point bL = p.project(pBL);
         Point tR = p.project(pTR);
@@ -44,6 +44,23 @@ public final class PointGeo {
         }
     }
 
+    /**
+     * indique si les coordonnées données forment un point valide, ce qui
+     * permet de vérifier une position sans lever d'exception
+     *
+     * @param longitude
+     *            la longitude, en radians
+     * @param latitude
+     *            la latitude, en radians
+     * @return vrai si et seulement si le constructeur accepte ces
+     *         coordonnées, c-à-d. si la longitude n'est pas hors de [-pi, pi]
+     *         ni la latitude hors de [-pi/2, pi/2]
+     */
+    public static boolean isValid(double longitude, double latitude) {
+        return !(longitude < -Math.PI || longitude > Math.PI)
+                && !(latitude < -Math.PI / 2 || latitude > Math.PI / 2);
+    }
+
     /**
      * @return la longitude du point
      */
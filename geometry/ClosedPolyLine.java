@@ -22,6 +22,19 @@ public final class ClosedPolyLine extends PolyLine {
         super(points);
     }
 
+    /**
+     * Constructeur d'une polyligne fermée à partir des coordonnées de ses
+     * sommets
+     * 
+     * @param coordinates
+     *            les coordonnées des sommets, x en 2i et y en 2i + 1 pour le
+     *            sommet d'index i
+     */
+    public ClosedPolyLine(double[] coordinates)
+            throws IllegalArgumentException {
+        super(coordinates);
+    }
+
     /**
      * méthode permettant d'informer de la nature d'une polyligne (ouverte ou
      * fermée)
@@ -34,19 +47,11 @@ public final class ClosedPolyLine extends PolyLine {
     }
 
     /**
-     * @return l'aire, toujours positive, de la polyligne
+     * @return l'aire, toujours positive, de la polyligne, calculée une seule
+     *         fois
      */
     public double area() {
-        double tempArea = 0;
-        for (int i = 0; i < points().size(); ++i) {
-            tempArea = tempArea
-                    + points().get(indiceG(points(), i)).x()
-                    * (points().get(indiceG(points(), i + 1)).y() - points()
-                            .get(indiceG(points(), i - 1)).y());
-        }
-        // être sur que le calcul de l'air doit prendre en compte la coordonnée
-        // Y du premier point en tant que le "yi+1" de la formule
-        return 0.5 * (Math.abs(tempArea));
+        return Math.abs(signedArea());
     }
 
     /**
@@ -56,19 +61,24 @@ public final class ClosedPolyLine extends PolyLine {
      *         la polyligne
      */
     public boolean containsPoint(Point p) {
+        // un point hors du rectangle englobant a un indice de 0
+        if (!boundsContain(p)) {
+            return false;
+        }
+        double x = p.x();
+        double y = p.y();
+        int n = size();
         int indice = 0;
-        for (int i = 0; i < points().size(); ++i) {
-
-            Point p1 = new Point(points().get(indiceG(points(), i)).x(),
-                    points().get(indiceG(points(), i)).y());
-            Point p2 = new Point(points().get(indiceG(points(), i + 1)).x(),
-                    points().get(indiceG(points(), i + 1)).y());
-            if (p1.y() <= p.y()) {
-                if (p2.y() > p.y() && pointIsLeft(p, p1, p2)) {
+        for (int i = 0; i < n; ++i) {
+            int j = i + 1 == n ? 0 : i + 1;
+            double x1 = x(i), y1 = y(i);
+            double x2 = x(j), y2 = y(j);
+            if (y1 <= y) {
+                if (y2 > y && isLeft(x, y, x1, y1, x2, y2)) {
                     indice = indice + 1;
                 }
             } else {
-                if (p2.y() <= p.y() && pointIsLeft(p, p2, p1)) {
+                if (y2 <= y && isLeft(x, y, x2, y2, x1, y1)) {
                     indice = indice - 1;
                 }
             }
@@ -79,48 +89,26 @@ public final class ClosedPolyLine extends PolyLine {
     /**
      * Détermine si un point se trouve à gauche d'une ligne définie par 2 points
      * 
-     * @param p
-     *            le point à tester
-     * @param p1
-     *            le premier point qui détermine la droite
-     * @param p2
-     *            le deuxième point qui détermine la droite
+     * @param x
+     *            l'abscisse du point à tester
+     * @param y
+     *            l'ordonnée du point à tester
+     * @param x1
+     *            l'abscisse du premier point qui détermine la droite
+     * @param y1
+     *            l'ordonnée du premier point qui détermine la droite
+     * @param x2
+     *            l'abscisse du deuxième point qui détermine la droite
+     * @param y2
+     *            l'ordonnée du deuxième point qui détermine la droite
      * @return vrai si et seulement si le point se trouve à gauche de la droite
-     *         donnée
-     */
-    private boolean pointIsLeft(Point p, Point p1, Point p2) {
-        return (triangleArea(p, p1, p2) > 0); 
-    }
-
-    /**
-     * Méthode qui calcule l'aire d'un triangle
-     * 
-     * @param sommet0
-     *            premier sommet du triangle
-     * @param sommet1
-     *            deuxième sommet du triangle
-     * @param sommet2
-     *            troisième sommet du triangle
-     * @return l'aire signée du triangle à partir des trois sommets
-     */
-    private double triangleArea(Point sommet0, Point sommet1, Point sommet2) {
-        double part1 = (sommet1.x() - sommet0.x())
-                * (sommet2.y() - sommet0.y());
-        double part2 = (sommet2.x() - sommet0.x())
-                * (sommet1.y() - sommet0.y());
-        return 0.5 * (part1 - part2);
-    }
-
-    /**
-     * Méthode qui permet d'obtenir l'indice généralisé
-     * 
-     * @param points
-     *            la liste de points qui permet d'en déduire sa taille
-     * @param i
-     *            l'indice en question, qu'il faut "généraliser"
-     * @return l'indice généralisé
+     *         donnée, c-à-d si l'aire signée du triangle formé par les trois
+     *         points est positive
      */
-    private int indiceG(List<Point> points, int i) {
-        return Math.floorMod(i, points.size());
+    private static boolean isLeft(double x, double y, double x1, double y1,
+            double x2, double y2) {
+        double part1 = (x1 - x) * (y2 - y);
+        double part2 = (x2 - x) * (y1 - y);
+        return 0.5 * (part1 - part2) > 0;
     }
 }
\ No newline at end of file
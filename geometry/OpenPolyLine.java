@@ -21,6 +21,17 @@ public final class OpenPolyLine extends PolyLine {
         super(points);
     }
 
+    /**
+     * Construit une polyligne ouverte à partir des coordonnées de ses sommets
+     * 
+     * @param coordinates
+     *            les coordonnées des sommets, x en 2i et y en 2i + 1 pour le
+     *            sommet d'index i
+     */
+    public OpenPolyLine(double[] coordinates) {
+        super(coordinates);
+    }
+
     /**
      * méthode permettant d'informer de la nature d'une polyligne (ouverte ou
      * fermée)
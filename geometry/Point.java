@@ -67,6 +67,37 @@ public final class Point {
     public static Function<Point, Point> alignedCoordinateChange(Point point1,
             Point point2, Point point3, Point point4)
             throws IllegalArgumentException {
+        double[] f = alignedCoordinateChangeFactors(point1, point2, point3,
+                point4);
+        double x1 = f[0], y1 = f[1], x2 = f[2], y2 = f[3];
+        return x -> new Point(x1 * x.x() + y1, x2 * x.y() + y2);
+    }
+
+    /**
+     * Méthode qui, étant donnés deux paires de points, retourne les facteurs
+     * (a, b, c, d) du changement de repère correspondant, qui associe au point
+     * (x, y) le point (a * x + b, c * y + d) ; permet d'appliquer le
+     * changement de repère à des coordonnées sans créer de points
+     * 
+     * @param point1
+     *            le premier point donné
+     * @param point2
+     *            le deuxième point donné, qui correspond au premier point dans
+     *            le nouveau repère
+     * @param point3
+     *            le troisième point donné
+     * @param point4
+     *            le quatrième point donné, qui correspond au troisième point
+     *            dans le nouveau repère
+     * @return les facteurs a, b, c et d du changement de repère, dans cet
+     *         ordre
+     * @throws IllegalArgumentException
+     *             si les deux points sont situés sur une même ligne horizontale
+     *             ou verticale
+     */
+    public static double[] alignedCoordinateChangeFactors(Point point1,
+            Point point2, Point point3, Point point4)
+            throws IllegalArgumentException {
         if (point1.x() == point3.x() || point1.y() == point3.y()) {
             throw new IllegalArgumentException(
                     "both points are at the same line.");
@@ -144,7 +175,7 @@ public final class Point {
         x2 = comp3;
         y2 = comp6;
 
-        return x -> new Point(x1 * x.x() + y1, x2 * x.y() + y2);
+        return new double[] { x1, y1, x2, y2 };
     }
 
 }
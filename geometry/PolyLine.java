@@ -1,20 +1,29 @@
 package ch.epfl.imhof.geometry;
 
-import java.util.Collections;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.ArrayList;
+import java.util.RandomAccess;
 
 /**
  * Classe mère des types ouverts et fermés de Polylignes, sert à représenter
  * abstraitement un ensemble de points
  * 
+ * Les sommets sont rangés dans un seul tableau de double, x en 2i et y en
+ * 2i + 1 pour le sommet d'index i ; la liste retournée par points() n'en est
+ * qu'une vue, dont les points sont créés à la demande.
+ * 
  * @author Cédric Viaccoz (250396)
  * @author Matteo Giorla (246524)
  */
 
 public abstract class PolyLine {
 
-    private final List<Point> points;
+    private final double[] coordinates;
+    // calculés à la première demande ; une course entre deux fils ne fait
+    // que calculer deux fois la même valeur
+    private volatile double[] bounds;
+    private volatile double signedArea = Double.NaN;
 
     /**
      * Construit une polyligne avec les sommets donnés
@@ -29,7 +38,30 @@ public abstract class PolyLine {
         if (points.isEmpty()) {
             throw new IllegalArgumentException("La liste de point est vide");
         } else {
-            this.points = Collections.unmodifiableList(new ArrayList<>(points)); 
+            this.coordinates = new double[2 * points.size()];
+            int i = 0;
+            for (Point p : points) {
+                coordinates[i++] = p.x();
+                coordinates[i++] = p.y();
+            }
+        }
+    }
+
+    /**
+     * Construit une polyligne avec les sommets dont les coordonnées sont
+     * données, x en 2i et y en 2i + 1 pour le sommet d'index i
+     * 
+     * @param coordinates
+     *            les coordonnées des sommets, copiées
+     * @throws IllegalArgumentException
+     *             lorsque le tableau est vide ou de longueur impaire
+     */
+    public PolyLine(double[] coordinates) throws IllegalArgumentException {
+        if (coordinates.length == 0 || coordinates.length % 2 != 0) {
+            throw new IllegalArgumentException(
+                    "Le nombre de coordonnées est nul ou impair");
+        } else {
+            this.coordinates = coordinates.clone();
         }
     }
 
@@ -44,14 +76,179 @@ public abstract class PolyLine {
      * @return le premier sommet de la polyligne
      */
     public Point firstPoint() {
-        return new Point(points.get(0).x(), points.get(0).y());
+        return new Point(coordinates[0], coordinates[1]);
     }
 
     /**
-     * @return la liste des sommets de la polyligne
+     * @return la liste non modifiable des sommets de la polyligne, vue dont
+     *         les points sont créés à chaque accès
      */
     public List<Point> points() {
-        return points;
+        return new PointList();
+    }
+
+    /**
+     * @return le nombre de sommets de la polyligne
+     */
+    public int size() {
+        return coordinates.length / 2;
+    }
+
+    /**
+     * @param index
+     *            l'index d'un sommet
+     * @return l'abscisse du sommet d'index donné
+     */
+    public double x(int index) {
+        return coordinates[2 * index];
+    }
+
+    /**
+     * @param index
+     *            l'index d'un sommet
+     * @return l'ordonnée du sommet d'index donné
+     */
+    public double y(int index) {
+        return coordinates[2 * index + 1];
+    }
+
+    /**
+     * @return une copie des coordonnées des sommets, x en 2i et y en 2i + 1
+     *         pour le sommet d'index i
+     */
+    public double[] coordinates() {
+        return coordinates.clone();
+    }
+
+    /**
+     * applique l'action donnée aux coordonnées de chaque sommet, dans l'ordre
+     * 
+     * @param action
+     *            l'action à appliquer
+     */
+    public void forEachVertex(VertexConsumer action) {
+        for (int i = 0; i < coordinates.length; i += 2) {
+            action.accept(coordinates[i], coordinates[i + 1]);
+        }
+    }
+
+    /**
+     * @return la plus petite abscisse des sommets de la polyligne
+     */
+    public double minX() {
+        return bounds()[0];
+    }
+
+    /**
+     * @return la plus petite ordonnée des sommets de la polyligne
+     */
+    public double minY() {
+        return bounds()[1];
+    }
+
+    /**
+     * @return la plus grande abscisse des sommets de la polyligne
+     */
+    public double maxX() {
+        return bounds()[2];
+    }
+
+    /**
+     * @return la plus grande ordonnée des sommets de la polyligne
+     */
+    public double maxY() {
+        return bounds()[3];
+    }
+
+    /**
+     * @param p
+     *            le point donné
+     * @return vrai si et seulement si le point donné se trouve dans le
+     *         rectangle englobant de la polyligne (bord compris)
+     */
+    public boolean boundsContain(Point p) {
+        double[] b = bounds();
+        return p.x() >= b[0] && p.y() >= b[1] && p.x() <= b[2]
+                && p.y() <= b[3];
+    }
+
+    /**
+     * calcule l'aire signée du polygone dont les sommets sont ceux de la
+     * polyligne (le dernier étant relié au premier), positive si les sommets
+     * tournent dans le sens inverse des aiguilles d'une montre. Elle n'est
+     * calculée qu'une fois.
+     * 
+     * @return l'aire signée de la polyligne
+     */
+    public double signedArea() {
+        double a = signedArea;
+        if (Double.isNaN(a)) {
+            double tempArea = 0;
+            int n = coordinates.length;
+            for (int i = 0; i < n; i += 2) {
+                int next = i + 2 == n ? 0 : i + 2;
+                int previous = i == 0 ? n - 2 : i - 2;
+                tempArea = tempArea + coordinates[i]
+                        * (coordinates[next + 1] - coordinates[previous + 1]);
+            }
+            a = 0.5 * tempArea;
+            signedArea = a;
+        }
+        return a;
+    }
+
+    /**
+     * @return le rectangle englobant (minX, minY, maxX, maxY), calculé à la
+     *         première demande
+     */
+    private double[] bounds() {
+        double[] b = bounds;
+        if (b == null) {
+            b = new double[] { Double.POSITIVE_INFINITY,
+                    Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                    Double.NEGATIVE_INFINITY };
+            for (int i = 0; i < coordinates.length; i += 2) {
+                b[0] = Math.min(b[0], coordinates[i]);
+                b[1] = Math.min(b[1], coordinates[i + 1]);
+                b[2] = Math.max(b[2], coordinates[i]);
+                b[3] = Math.max(b[3], coordinates[i + 1]);
+            }
+            bounds = b;
+        }
+        return b;
+    }
+
+    /**
+     * Action appliquée aux coordonnées des sommets par forEachVertex
+     */
+    @FunctionalInterface
+    public interface VertexConsumer {
+        /**
+         * @param x
+         *            l'abscisse du sommet
+         * @param y
+         *            l'ordonnée du sommet
+         */
+        void accept(double x, double y);
+    }
+
+    /**
+     * Vue non modifiable des sommets de la polyligne
+     */
+    private final class PointList extends AbstractList<Point> implements
+            RandomAccess {
+        @Override
+        public Point get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            return new Point(coordinates[2 * index], coordinates[2 * index + 1]);
+        }
+
+        @Override
+        public int size() {
+            return PolyLine.this.size();
+        }
     }
 
     /**
@@ -61,7 +258,8 @@ public abstract class PolyLine {
      */
     public final static class Builder {
 
-        private List<Point> points = new ArrayList<>();
+        private double[] coordinates = new double[16];
+        private int length = 0;
 
         /**
          * Ajoute un point à la fin de la liste des sommets de la polyligne en
@@ -72,7 +270,11 @@ public abstract class PolyLine {
          *            Builder
          */
         public void addPoint(Point newPoint) {
-            points.add(newPoint);
+            if (length == coordinates.length) {
+                coordinates = Arrays.copyOf(coordinates, 2 * length);
+            }
+            coordinates[length++] = newPoint.x();
+            coordinates[length++] = newPoint.y();
         }
 
         /**
@@ -83,7 +285,7 @@ public abstract class PolyLine {
          */
         public OpenPolyLine buildOpen() {
             try {
-                return new OpenPolyLine(this.points);
+                return new OpenPolyLine(Arrays.copyOf(coordinates, length));
             } catch (IllegalArgumentException e) {
                 System.out.println(e);
                 return null;
@@ -98,7 +300,7 @@ public abstract class PolyLine {
          */
         public ClosedPolyLine buildClosed() {
             try {
-                return new ClosedPolyLine(this.points);
+                return new ClosedPolyLine(Arrays.copyOf(coordinates, length));
             } catch (IllegalArgumentException e) {
                 return null;
             }
@@ -0,0 +1,313 @@
+package ch.epfl.imhof.osm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Format « gzip par blocs » des fichiers OSM : le fichier est une suite de
+ * membres gzip indépendants (ce qui reste un fichier gzip valide, lisible par
+ * GZIPInputStream), chacun contenant une suite d'éléments XML complets
+ * d'environ 1 Mo. Un index placé à côté du fichier (même nom suivi de
+ * ".idx") donne la position de chaque bloc, ce qui permet de les
+ * décompresser en parallèle et de sauter directement au premier bloc de
+ * chemins ou de relations (les nœuds sont toujours dans des blocs à part).
+ *
+ * Usage : {@code java ch.epfl.imhof.osm.OSMBlockGzip source.osm.gz
+ * destination.osm.gz}
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+public final class OSMBlockGzip {
+
+    private static final int MAGIC = 0x4F534D49; // "OSMI"
+    private static final int VERSION = 1;
+    private static final int BLOCK_SIZE = 1 << 20;
+    private static final int READ_SIZE = 1 << 16;
+
+    /**
+     * Constructeur par défaut privé et vide car la classe est non instanciable
+     */
+    private OSMBlockGzip() {
+    }
+
+    /**
+     * réécrit le fichier OSM donné au format gzip par blocs et écrit son index
+     *
+     * @param args
+     *            le fichier source (compressé avec gzip si son nom se termine
+     *            par ".gz") et le fichier destination
+     * @throws IOException
+     *             en cas d'erreur d'entrée/sortie
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage : OSMBlockGzip source destination");
+            System.exit(1);
+        }
+        rewrite(args[0], args[0].endsWith(".gz"), args[1]);
+    }
+
+    /**
+     * réécrit le fichier OSM de nom donné au format gzip par blocs, et écrit
+     * son index à côté de lui. Les blocs sont coupés au début d'un nœud,
+     * d'un chemin ou d'une relation, et toujours avant le premier chemin ou
+     * la première relation.
+     *
+     * @param sourceName
+     *            le fichier OSM à réécrire
+     * @param unGZip
+     *            vrai si le fichier à réécrire est compressé avec gzip
+     * @param targetName
+     *            le fichier à écrire
+     * @throws IOException
+     *             en cas d'erreur d'entrée/sortie
+     */
+    public static void rewrite(String sourceName, boolean unGZip,
+            String targetName) throws IOException {
+        Path target = Paths.get(targetName);
+        BlockWriter w;
+        try (InputStream in = OSMMapReader.openInput(sourceName, unGZip);
+                OutputStream out = Files.newOutputStream(target)) {
+            w = new BlockWriter(out);
+            byte[] block = new byte[2 * BLOCK_SIZE];
+            int length = 0;
+            int searchFrom = 0;
+            boolean inWays = false;
+            boolean end = false;
+            while (!end || length > 0) {
+                if (!end) {
+                    if (length == block.length) {
+                        // pas de coupure possible : le bloc s'agrandit
+                        block = Arrays.copyOf(block, 2 * block.length);
+                    }
+                    int n = in.read(block, length,
+                            Math.min(READ_SIZE, block.length - length));
+                    if (n < 0) {
+                        end = true;
+                    } else {
+                        length += n;
+                    }
+                }
+                int cut = -1;
+                if (!inWays) {
+                    int way = nextElement(block, searchFrom, length, true);
+                    if (way > 0) {
+                        cut = way;
+                    }
+                    inWays = way >= 0;
+                }
+                // une coupure avant le premier chemin termine un bloc de nœuds
+                boolean nodes = cut > 0 || !inWays;
+                if (cut < 0 && length >= BLOCK_SIZE) {
+                    cut = nextElement(block, Math.max(searchFrom, BLOCK_SIZE),
+                            length, false);
+                }
+                if (cut < 0 && end) {
+                    cut = length;
+                }
+                if (cut > 0) {
+                    w.block(block, cut, nodes);
+                    System.arraycopy(block, cut, block, 0, length - cut);
+                    length -= cut;
+                    searchFrom = 0;
+                } else {
+                    searchFrom = Math.max(0, length - 10);
+                }
+            }
+        }
+        w.writeIndex(target);
+    }
+
+    /**
+     * @param ways
+     *            vrai pour ne chercher que les chemins et les relations
+     * @return la position du premier élément {@code <node}, {@code <way} ou
+     *         {@code <relation} (seulement les deux derniers si ways est
+     *         vrai) commençant dans la plage donnée, ou -1
+     */
+    private static int nextElement(byte[] b, int from, int to, boolean ways) {
+        for (int i = from; i < to; ++i) {
+            if (b[i] == '<') {
+                if (startsElement(b, i + 1, to, "way")
+                        || startsElement(b, i + 1, to, "relation")
+                        || !ways && startsElement(b, i + 1, to, "node")) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsElement(byte[] b, int from, int to,
+            String name) {
+        if (from + name.length() >= to) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); ++i) {
+            if (b[from + i] != name.charAt(i)) {
+                return false;
+            }
+        }
+        byte next = b[from + name.length()];
+        return next == ' ' || next == '\t' || next == '\n' || next == '\r'
+                || next == '/' || next == '>';
+    }
+
+    /**
+     * Écrit les blocs compressés et garde leur position pour l'index
+     */
+    private static final class BlockWriter {
+
+        private final OutputStream out;
+        private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        private long[] offsets = new long[64];
+        private int[] compressedLengths = new int[64];
+        private int[] lengths = new int[64];
+        private int count;
+        private int firstWayBlock = -1;
+        private long offset;
+
+        private BlockWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        private void block(byte[] b, int length, boolean nodes)
+                throws IOException {
+            compressed.reset();
+            try (GZIPOutputStream gz = new GZIPOutputStream(compressed, READ_SIZE)) {
+                gz.write(b, 0, length);
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, 2 * count);
+                compressedLengths = Arrays.copyOf(compressedLengths, 2 * count);
+                lengths = Arrays.copyOf(lengths, 2 * count);
+            }
+            if (!nodes && firstWayBlock < 0) {
+                firstWayBlock = count;
+            }
+            offsets[count] = offset;
+            compressedLengths[count] = compressed.size();
+            lengths[count] = length;
+            ++count;
+            compressed.writeTo(out);
+            offset += compressed.size();
+        }
+
+        private void writeIndex(Path target) throws IOException {
+            try (DataOutputStream index = new DataOutputStream(
+                    Files.newOutputStream(indexPath(target)))) {
+                index.writeInt(MAGIC);
+                index.writeInt(VERSION);
+                index.writeLong(Files.size(target));
+                index.writeLong(Files.getLastModifiedTime(target).toMillis());
+                index.writeInt(count);
+                index.writeInt(firstWayBlock < 0 ? count : firstWayBlock);
+                for (int i = 0; i < count; ++i) {
+                    index.writeLong(offsets[i]);
+                    index.writeInt(compressedLengths[i]);
+                    index.writeInt(lengths[i]);
+                }
+            }
+        }
+    }
+
+    private static Path indexPath(Path file) {
+        return file.resolveSibling(file.getFileName() + ".idx");
+    }
+
+    /**
+     * Index d'un fichier gzip par blocs
+     */
+    static final class Index {
+
+        private final long[] offsets;
+        private final int[] compressedLengths;
+        private final int[] lengths;
+        private final int firstWayBlock;
+
+        private Index(long[] offsets, int[] compressedLengths, int[] lengths,
+                int firstWayBlock) {
+            this.offsets = offsets;
+            this.compressedLengths = compressedLengths;
+            this.lengths = lengths;
+            this.firstWayBlock = firstWayBlock;
+        }
+
+        /**
+         * @return le nombre de blocs
+         */
+        int blocks() {
+            return offsets.length;
+        }
+
+        /**
+         * @return l'indice du premier bloc contenant des chemins ou des
+         *         relations ; les blocs précédents ne contiennent que des
+         *         nœuds (et l'en-tête du document)
+         */
+        int firstWayBlock() {
+            return firstWayBlock;
+        }
+
+        long offset(int block) {
+            return offsets[block];
+        }
+
+        int compressedLength(int block) {
+            return compressedLengths[block];
+        }
+
+        int length(int block) {
+            return lengths[block];
+        }
+    }
+
+    /**
+     * lit l'index du fichier gzip par blocs de nom donné
+     *
+     * @param fileName
+     *            le fichier compressé
+     * @return l'index du fichier, ou null s'il n'existe pas ou ne correspond
+     *         pas au fichier (taille ou date de modification différentes)
+     * @throws IOException
+     *             en cas d'erreur d'entrée/sortie
+     */
+    static Index index(String fileName) throws IOException {
+        Path file = Paths.get(fileName);
+        Path indexFile = indexPath(file);
+        if (!Files.isRegularFile(indexFile) || !Files.isRegularFile(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                Files.newInputStream(indexFile))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readLong() != Files.size(file)
+                    || in.readLong() != Files.getLastModifiedTime(file)
+                            .toMillis()) {
+                return null;
+            }
+            int count = in.readInt();
+            int firstWayBlock = in.readInt();
+            long[] offsets = new long[count];
+            int[] compressedLengths = new int[count];
+            int[] lengths = new int[count];
+            for (int i = 0; i < count; ++i) {
+                offsets[i] = in.readLong();
+                compressedLengths[i] = in.readInt();
+                lengths[i] = in.readInt();
+            }
+            return new Index(offsets, compressedLengths, lengths,
+                    firstWayBlock);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package ch.epfl.imhof.osm;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Lecteur de fichiers OSM au format gzip par blocs (voir OSMBlockGzip) :
+ * chaque bloc est lu, décompressé et analysé par l'un des fils d'exécution
+ * dans un OSMRecordBatch, et les lots sont rejoués dans l'ordre du fichier
+ * sur le fil appelant.
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+final class OSMBlockGzipReader {
+
+    /**
+     * Constructeur par défaut privé et vide car la classe est non instanciable
+     */
+    private OSMBlockGzipReader() {
+    }
+
+    /**
+     * lit le fichier de nom donné et transmet ses éléments, dans l'ordre, au
+     * destinataire donné, qui n'est appelé que depuis le fil appelant
+     *
+     * @param fileName
+     *            le fichier au format gzip par blocs
+     * @param index
+     *            l'index du fichier
+     * @param threads
+     *            le nombre de fils d'exécution décompressant les blocs
+     * @param nodes
+     *            faux si les nœuds ne sont pas nécessaires : les blocs qui ne
+     *            contiennent que des nœuds ne sont alors pas lus
+     * @param sink
+     *            le destinataire des éléments
+     * @throws IOException
+     *             en cas d'erreur d'entrée/sortie ou si le fichier est mal
+     *             formé
+     */
+    static void read(String fileName, OSMBlockGzip.Index index, int threads,
+            boolean nodes, OSMEntitySink sink) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "osm-gzip");
+            t.setDaemon(true);
+            return t;
+        });
+        Queue<Future<OSMRecordBatch>> pending = new ArrayDeque<>();
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+                StandardOpenOption.READ)) {
+            for (int b = nodes ? 0 : index.firstWayBlock(); b < index.blocks(); ++b) {
+                int block = b;
+                pending.add(workers.submit(() -> decodeBlock(channel, index,
+                        block)));
+                // borne le nombre de blocs décodés en avance
+                if (pending.size() >= 2 * threads) {
+                    replay(pending.remove(), sink);
+                }
+            }
+            while (!pending.isEmpty()) {
+                replay(pending.remove(), sink);
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * lit, décompresse et analyse le bloc donné
+     */
+    private static OSMRecordBatch decodeBlock(FileChannel channel,
+            OSMBlockGzip.Index index, int block) throws IOException {
+        ByteBuffer compressed = ByteBuffer.allocate(index
+                .compressedLength(block));
+        long offset = index.offset(block);
+        while (compressed.hasRemaining()) {
+            if (channel.read(compressed, offset + compressed.position()) < 0) {
+                throw new IOException("Bloc gzip tronqué");
+            }
+        }
+        byte[] xml;
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(
+                compressed.array()))) {
+            xml = in.readNBytes(index.length(block));
+        }
+        if (xml.length != index.length(block)) {
+            throw new IOException("Bloc gzip tronqué");
+        }
+        OSMRecordBatch batch = new OSMRecordBatch();
+        new OSMXMLTokenizer(batch).tokenize(ByteBuffer.wrap(xml), 0,
+                xml.length, true);
+        return batch;
+    }
+
+    /**
+     * attend le décodage d'un bloc puis rejoue ses éléments vers le
+     * destinataire donné
+     */
+    private static void replay(Future<OSMRecordBatch> block, OSMEntitySink sink)
+            throws IOException {
+        try {
+            block.get().replay(sink);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
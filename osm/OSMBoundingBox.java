@@ -0,0 +1,114 @@
+package ch.epfl.imhof.osm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import ch.epfl.imhof.PointGeo;
+
+/**
+ * Rectangle en coordonnées géographiques (agrandi d'une marge), qui permet de
+ * savoir si une entité OSM touche la zone à dessiner.
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+final class OSMBoundingBox {
+
+    private final double minLongitude;
+    private final double minLatitude;
+    private final double maxLongitude;
+    private final double maxLatitude;
+    private final Map<Long, Boolean> relationsInView = new HashMap<>();
+
+    /**
+     * Construit le rectangle de coins donnés, agrandi de la marge donnée de
+     * chaque côté
+     *
+     * @param bottomLeft
+     *            le coin bas-gauche
+     * @param topRight
+     *            le coin haut-droit
+     * @param margin
+     *            la marge, en radians
+     * @throws IllegalArgumentException
+     *             si la marge est négative ou si les coins ne sont pas dans
+     *             le bon ordre
+     */
+    OSMBoundingBox(PointGeo bottomLeft, PointGeo topRight, double margin) {
+        if (margin < 0 || bottomLeft.longitude() > topRight.longitude()
+                || bottomLeft.latitude() > topRight.latitude()) {
+            throw new IllegalArgumentException("Rectangle englobant invalide");
+        }
+        this.minLongitude = bottomLeft.longitude() - margin;
+        this.minLatitude = bottomLeft.latitude() - margin;
+        this.maxLongitude = topRight.longitude() + margin;
+        this.maxLatitude = topRight.latitude() + margin;
+    }
+
+    /**
+     * @param node
+     *            le nœud donné
+     * @return vrai si et seulement si le nœud se trouve dans le rectangle
+     */
+    boolean contains(OSMNode node) {
+        PointGeo p = node.position();
+        return p.longitude() >= minLongitude && p.longitude() <= maxLongitude
+                && p.latitude() >= minLatitude && p.latitude() <= maxLatitude;
+    }
+
+    /**
+     * @param way
+     *            le chemin donné
+     * @return vrai si et seulement si le rectangle englobant du chemin
+     *         intersecte le rectangle, c-à-d si le chemin peut le traverser
+     */
+    boolean intersects(OSMWay way) {
+        double wMinLon = Double.POSITIVE_INFINITY;
+        double wMinLat = Double.POSITIVE_INFINITY;
+        double wMaxLon = Double.NEGATIVE_INFINITY;
+        double wMaxLat = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < way.nodesCount(); ++i) {
+            double longitude = way.longitude(i);
+            double latitude = way.latitude(i);
+            wMinLon = Math.min(wMinLon, longitude);
+            wMinLat = Math.min(wMinLat, latitude);
+            wMaxLon = Math.max(wMaxLon, longitude);
+            wMaxLat = Math.max(wMaxLat, latitude);
+        }
+        return wMinLon <= maxLongitude && wMaxLon >= minLongitude
+                && wMinLat <= maxLatitude && wMaxLat >= minLatitude;
+    }
+
+    /**
+     * @param relation
+     *            la relation donnée
+     * @return vrai si et seulement si au moins un des membres de la relation
+     *         touche le rectangle
+     */
+    boolean intersects(OSMRelation relation) {
+        Boolean known = relationsInView.get(relation.id());
+        if (known != null) {
+            return known;
+        }
+        boolean inView = false;
+        for (OSMRelation.Member m : relation.members()) {
+            OSMEntity e = m.member();
+            switch (m.type()) {
+            case NODE:
+                inView = contains((OSMNode) e);
+                break;
+            case WAY:
+                inView = intersects((OSMWay) e);
+                break;
+            default:
+                inView = intersects((OSMRelation) e);
+                break;
+            }
+            if (inView) {
+                break;
+            }
+        }
+        relationsInView.put(relation.id(), inView);
+        return inView;
+    }
+}
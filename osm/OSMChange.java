@@ -0,0 +1,763 @@
+package ch.epfl.imhof.osm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import ch.epfl.imhof.Attributes;
+import ch.epfl.imhof.PointGeo;
+import ch.epfl.imhof.osm.OSMRelation.Member;
+import ch.epfl.imhof.osm.OSMRelation.Member.Type;
+
+/**
+ * Résultat de l'application d'un fichier de modifications OSM (.osc) à une
+ * carte : la nouvelle carte et les identifiants des entités modifiées. Une
+ * entité est modifiée si le fichier la crée, la modifie ou la supprime, ou si
+ * l'une des entités qu'elle référence (nœud d'un chemin, membre d'une
+ * relation) est modifiée ; seules ces entités doivent être converties et
+ * dessinées à nouveau.
+ *
+ * Comme pour OSMMapReader, un chemin ou une relation qui référence une
+ * entité supprimée est incomplet et n'en fait pas partie. Seuls les nœuds
+ * référencés par la carte d'origine ou créés par le fichier sont connus : un
+ * chemin créé ou modifié qui référence un nœud inconnu, p.ex. écarté de la
+ * carte par le rectangle à dessiner, ne peut pas être construit. Il ne fait
+ * pas partie de la carte, et son identifiant est donné par
+ * unresolvedWayIds (de même pour les relations) : ces entités doivent être
+ * relues dans le fichier OSM complet. De même, un nœud déplacé par le fichier
+ * peut faire entrer dans le rectangle un chemin que la carte ne contient
+ * pas et que le fichier ne mentionne pas : les nœuds concernés sont donnés
+ * par unresolvedNodeIds.
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+public final class OSMChange {
+
+    private final OSMMap map;
+    private final Set<Long> changedNodeIds;
+    private final Set<Long> changedWayIds;
+    private final Set<Long> changedRelationIds;
+    private final Set<Long> unresolvedNodeIds;
+    private final Set<Long> unresolvedWayIds;
+    private final Set<Long> unresolvedRelationIds;
+
+    private OSMChange(OSMMap map, Set<Long> changedNodeIds,
+            Set<Long> changedWayIds, Set<Long> changedRelationIds,
+            Set<Long> unresolvedNodeIds, Set<Long> unresolvedWayIds,
+            Set<Long> unresolvedRelationIds) {
+        this.map = map;
+        this.changedNodeIds = Collections.unmodifiableSet(changedNodeIds);
+        this.changedWayIds = Collections.unmodifiableSet(changedWayIds);
+        this.changedRelationIds = Collections
+                .unmodifiableSet(changedRelationIds);
+        this.unresolvedNodeIds = Collections.unmodifiableSet(unresolvedNodeIds);
+        this.unresolvedWayIds = Collections.unmodifiableSet(unresolvedWayIds);
+        this.unresolvedRelationIds = Collections
+                .unmodifiableSet(unresolvedRelationIds);
+    }
+
+    /**
+     * applique à la carte donnée les modifications contenues dans le fichier
+     * de nom donné, en le décompressant avec gzip si et seulement si le
+     * dernier argument est vrai. La carte donnée n'est pas modifiée ; les
+     * entités qui ne changent pas sont partagées avec la nouvelle carte.
+     *
+     * @param map
+     *            la carte à modifier, p.ex. chargée d'un instantané
+     * @param fileName
+     *            le fichier de modifications OSM
+     * @param unGZip
+     *            vrai si le fichier doit être décompressé avec GZIP
+     * @return la nouvelle carte et les identifiants des entités modifiées
+     * @throws SAXException
+     *             en cas d'erreur dans le format du fichier XML
+     * @throws IOException
+     *             en cas d'autre erreur d'entrée/sortie
+     */
+    public static OSMChange apply(OSMMap map, String fileName, boolean unGZip)
+            throws SAXException, IOException {
+        return apply(map, fileName, unGZip,
+                new OSMReadOptions.Builder().build());
+    }
+
+    /**
+     * applique à la carte donnée les modifications contenues dans le fichier
+     * de nom donné, comme apply, en appliquant aux entités créées ou
+     * modifiées le rectangle à dessiner et le filtrage des attributs des
+     * options données, qui devraient être celles avec lesquelles la carte a
+     * été lue. Un chemin ou une relation modifié qui ne touche plus le
+     * rectangle (ou un chemin qui n'a plus d'attribut dessiné) ne fait donc
+     * plus partie de la carte, et inversement. Les autres options ne
+     * s'appliquent pas.
+     *
+     * @param map
+     *            la carte à modifier, p.ex. chargée d'un instantané
+     * @param fileName
+     *            le fichier de modifications OSM
+     * @param unGZip
+     *            vrai si le fichier doit être décompressé avec GZIP
+     * @param options
+     *            les options de lecture de la carte
+     * @return la nouvelle carte et les identifiants des entités modifiées
+     * @throws SAXException
+     *             en cas d'erreur dans le format du fichier XML
+     * @throws IOException
+     *             en cas d'autre erreur d'entrée/sortie
+     */
+    public static OSMChange apply(OSMMap map, String fileName,
+            boolean unGZip, OSMReadOptions options) throws SAXException,
+            IOException {
+        ChangeSink changes = new ChangeSink(options.filterTags());
+        try (InputStream i = OSMMapReader.openInput(fileName, unGZip)) {
+            XMLReader r = OSMMapReader.xmlReader();
+            r.setContentHandler(new ChangeHandler(changes));
+            r.parse(new InputSource(i));
+        }
+        return new Applier(map, changes, options.boundingBox(),
+                options.filterTags()).apply();
+    }
+
+    /**
+     * @return la carte modifiée
+     */
+    public OSMMap map() {
+        return map;
+    }
+
+    /**
+     * @return les identifiants des nœuds créés, modifiés ou supprimés
+     */
+    public Set<Long> changedNodeIds() {
+        return changedNodeIds;
+    }
+
+    /**
+     * @return les identifiants des chemins créés, modifiés, supprimés ou
+     *         dont un nœud a été modifié
+     */
+    public Set<Long> changedWayIds() {
+        return changedWayIds;
+    }
+
+    /**
+     * @return les identifiants des relations créées, modifiées, supprimées
+     *         ou dont un membre a été modifié
+     */
+    public Set<Long> changedRelationIds() {
+        return changedRelationIds;
+    }
+
+    /**
+     * @return les identifiants des nœuds créés ou modifiés qui étaient
+     *         inconnus de la carte d'origine ou hors du rectangle à dessiner :
+     *         en les déplaçant, le fichier peut faire entrer dans le
+     *         rectangle des chemins qui ne font pas partie de la carte (un
+     *         chemin qui contient un nœud du rectangle y figure déjà).
+     *         L'ensemble est vide si aucun rectangle n'est donné.
+     */
+    public Set<Long> unresolvedNodeIds() {
+        return unresolvedNodeIds;
+    }
+
+    /**
+     * @return les identifiants des chemins créés ou modifiés qui référencent
+     *         un nœud inconnu de la carte d'origine et du fichier, et qui ne
+     *         font donc pas partie de la carte modifiée ; ils font partie de
+     *         changedWayIds
+     */
+    public Set<Long> unresolvedWayIds() {
+        return unresolvedWayIds;
+    }
+
+    /**
+     * @return les identifiants des relations créées ou modifiées qui
+     *         référencent une entité inconnue de la carte d'origine et du
+     *         fichier, ou un chemin ou une relation qui ne peut pas être
+     *         construit pour cette raison ; elles ne font pas partie de la
+     *         carte modifiée, et font partie de changedRelationIds
+     */
+    public Set<Long> unresolvedRelationIds() {
+        return unresolvedRelationIds;
+    }
+
+    /**
+     * Gestionnaire SAX qui transmet les entités des blocs create et modify
+     * au destinataire, et les identifiants des entités des blocs delete
+     * directement aux modifications (elles n'ont pas forcément de position)
+     */
+    private static final class ChangeHandler extends
+            OSMMapReader.SAXEventHandler {
+
+        private final ChangeSink changes;
+        private boolean delete;
+
+        private ChangeHandler(ChangeSink changes) {
+            super(changes);
+            this.changes = changes;
+        }
+
+        @Override
+        public void startElement(String uri, String lName, String qName,
+                org.xml.sax.Attributes atts) throws SAXException {
+            switch (qName) {
+            case "create":
+            case "modify":
+                delete = false;
+                break;
+            case "delete":
+                delete = true;
+                break;
+            default:
+                if (!delete) {
+                    super.startElement(uri, lName, qName, atts);
+                } else if (qName.equals("node") || qName.equals("way")
+                        || qName.equals("relation")) {
+                    changes.delete(qName, Long.parseLong(atts.getValue("id")));
+                }
+                break;
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String lName, String qName) {
+            if (!delete) {
+                super.endElement(uri, lName, qName);
+            }
+        }
+    }
+
+    /**
+     * Chemin ou relation créé ou modifié : références non résolues et
+     * attributs
+     */
+    private static final class EntityChange {
+        private final long id;
+        private final List<Type> types = new ArrayList<>();
+        private final List<Long> refs = new ArrayList<>();
+        private final List<String> roles = new ArrayList<>();
+        private final Attributes.Builder attributes = new Attributes.Builder();
+
+        private EntityChange(long id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Destinataire qui enregistre les modifications ; pour chaque entité,
+     * seule la dernière modification compte. Une valeur null représente une
+     * suppression.
+     */
+    private static final class ChangeSink implements OSMEntitySink {
+
+        private final Map<Long, OSMNode> nodes = new LinkedHashMap<>();
+        private final Map<Long, EntityChange> ways = new LinkedHashMap<>();
+        private final Map<Long, EntityChange> relations = new LinkedHashMap<>();
+        private final boolean filterTags;
+        private EntityChange current;
+
+        private ChangeSink(boolean filterTags) {
+            this.filterTags = filterTags;
+        }
+
+        private void delete(String type, long id) {
+            current = null;
+            switch (type) {
+            case "node":
+                nodes.put(id, null);
+                break;
+            case "way":
+                ways.put(id, null);
+                break;
+            default:
+                relations.put(id, null);
+                break;
+            }
+        }
+
+        @Override
+        public void node(long id, double longitude, double latitude) {
+            current = null;
+            OSMNode node = null;
+            // un nœud invalide n'est pas lu par OSMMapReader
+            if (PointGeo.isValid(Math.toRadians(longitude),
+                    Math.toRadians(latitude))) {
+                node = new OSMNode.Builder(id, new PointGeo(
+                        Math.toRadians(longitude), Math.toRadians(latitude)))
+                        .build();
+            }
+            nodes.put(id, node);
+        }
+
+        @Override
+        public void startWay(long id) {
+            current = new EntityChange(id);
+        }
+
+        @Override
+        public void wayNode(long ref) {
+            current.refs.add(ref);
+        }
+
+        @Override
+        public void endWay() {
+            ways.remove(current.id);
+            ways.put(current.id, current);
+        }
+
+        @Override
+        public void startRelation(long id) {
+            current = new EntityChange(id);
+        }
+
+        @Override
+        public void member(Type type, long ref, String role) {
+            if (type != null) {
+                current.types.add(type);
+                current.refs.add(ref);
+                current.roles.add(role);
+            }
+        }
+
+        @Override
+        public void endRelation() {
+            relations.remove(current.id);
+            relations.put(current.id, current);
+        }
+
+        @Override
+        public void tag(String key, String value) {
+            if (current != null
+                    && (!filterTags || OSMToGeoTransformer.USED_KEYS
+                            .contains(key))) {
+                current.attributes.put(key, value);
+            }
+        }
+    }
+
+    /**
+     * Construit la nouvelle carte en ne reconstruisant que les entités
+     * modifiées et celles qui en dépendent
+     */
+    private static final class Applier {
+
+        private final OSMMap map;
+        private final ChangeSink changes;
+        private final OSMBoundingBox view;
+        private final boolean filterTags;
+        // chemins et relations de la carte d'origine, y compris ceux qui ne
+        // sont atteignables que par une relation
+        private final OSMMap.Builder old = new OSMMap.Builder();
+        // nœuds de la carte d'origine : table et entrée de chaque
+        // identifiant ; les nœuds membres de relations sont copiés dans une
+        // table à part
+        private final OSMIdIndex oldNodeIds = new OSMIdIndex();
+        private OSMNodeTable[] oldNodeTables = new OSMNodeTable[16];
+        private int[] oldNodeEntries = new int[16];
+        private final OSMNodeTable memberNodes = new OSMNodeTable();
+        // table partagée par les chemins reconstruits
+        private final OSMNodeTable nodes = new OSMNodeTable();
+        // index des nœuds modifiés, pour tester sans allocation les nœuds
+        // des chemins d'origine
+        private final OSMIdIndex changedNodes = new OSMIdIndex();
+
+        private final Map<Long, OSMWay> newWays = new HashMap<>();
+        private final Map<Long, OSMRelation> newRelations = new HashMap<>();
+        private final Set<Long> inProgress = new HashSet<>();
+
+        private final Set<Long> changedWayIds = new HashSet<>();
+        private final Set<Long> changedRelationIds = new HashSet<>();
+        private final Set<Long> unresolvedWayIds = new HashSet<>();
+        private final Set<Long> unresolvedRelationIds = new HashSet<>();
+
+        private Applier(OSMMap map, ChangeSink changes, OSMBoundingBox view,
+                boolean filterTags) {
+            this.map = map;
+            this.changes = changes;
+            this.view = view;
+            this.filterTags = filterTags;
+            for (OSMWay w : map.ways()) {
+                index(w);
+            }
+            for (OSMRelation r : map.relations()) {
+                index(r);
+            }
+            for (long id : changes.nodes.keySet()) {
+                changedNodes.add(id);
+            }
+        }
+
+        private OSMChange apply() {
+            // les entités modifiées qui n'étaient que membres de relations
+            // (p.ex. hors du rectangle) peuvent entrer dans la carte
+            OSMIdSet mapWays = new OSMIdSet();
+            List<OSMWay> ways = new ArrayList<>();
+            for (OSMWay w : map.ways()) {
+                mapWays.add(w.id());
+                addWay(ways, way(w.id()));
+            }
+            for (long id : changes.ways.keySet()) {
+                if (!mapWays.contains(id)) {
+                    addWay(ways, way(id));
+                }
+            }
+            OSMIdSet mapRelations = new OSMIdSet();
+            List<OSMRelation> relations = new ArrayList<>();
+            for (OSMRelation r : map.relations()) {
+                mapRelations.add(r.id());
+                addRelation(relations, relation(r.id()));
+            }
+            for (long id : changes.relations.keySet()) {
+                if (!mapRelations.contains(id)) {
+                    addRelation(relations, relation(id));
+                }
+            }
+            changedWayIds.addAll(changes.ways.keySet());
+            changedRelationIds.addAll(changes.relations.keySet());
+            Set<Long> unresolvedNodeIds = new HashSet<>();
+            if (view != null) {
+                for (Map.Entry<Long, OSMNode> e : changes.nodes.entrySet()) {
+                    long id = e.getKey();
+                    int i = oldNodeIds.indexOf(id);
+                    if (e.getValue() != null && (i < 0 || !view.contains(
+                            oldNodeTables[i].node(oldNodeEntries[i])))) {
+                        unresolvedNodeIds.add(id);
+                    }
+                }
+            }
+            return new OSMChange(new OSMMap(ways, relations), new HashSet<>(
+                    changes.nodes.keySet()), changedWayIds, changedRelationIds,
+                    unresolvedNodeIds, unresolvedWayIds, unresolvedRelationIds);
+        }
+
+        /**
+         * ajoute le chemin donné, s'il existe, à la liste donnée ; un chemin
+         * créé ou modifié n'est ajouté que s'il touche le rectangle et, si
+         * les attributs sont filtrés, s'il a un attribut dessiné, comme à la
+         * lecture (voir OSMEntityAssembler)
+         */
+        private void addWay(List<OSMWay> ways, OSMWay w) {
+            if (w == null) {
+                return;
+            }
+            boolean changed = changedWayIds.contains(w.id())
+                    || changes.ways.containsKey(w.id());
+            boolean drawn = (view == null || view.intersects(w))
+                    && (!filterTags || OSMEntityAssembler.isDrawn(w));
+            if (!changed || drawn) {
+                ways.add(w);
+            }
+        }
+
+        /**
+         * ajoute la relation donnée, si elle existe, à la liste donnée ; une
+         * relation créée ou modifiée n'est ajoutée que si elle touche le
+         * rectangle
+         */
+        private void addRelation(List<OSMRelation> relations, OSMRelation r) {
+            if (r == null) {
+                return;
+            }
+            boolean changed = changedRelationIds.contains(r.id())
+                    || changes.relations.containsKey(r.id());
+            if (!changed || view == null || view.intersects(r)) {
+                relations.add(r);
+            }
+        }
+
+        private void index(OSMWay w) {
+            if (old.wayForId(w.id()) == null) {
+                for (int i = 0; i < w.nodesCount(); ++i) {
+                    index(w.nodeId(i), w.table(), w.entry(i));
+                }
+                old.addWay(w);
+            }
+        }
+
+        /**
+         * note que le nœud d'identifiant donné est à l'entrée donnée de la
+         * table donnée, s'il n'a pas déjà été trouvé ailleurs
+         */
+        private void index(long id, OSMNodeTable table, int entry) {
+            int size = oldNodeIds.size();
+            int i = oldNodeIds.add(id);
+            if (i == size) {
+                if (i == oldNodeTables.length) {
+                    oldNodeTables = Arrays.copyOf(oldNodeTables, 2 * i);
+                    oldNodeEntries = Arrays.copyOf(oldNodeEntries, 2 * i);
+                }
+                oldNodeTables[i] = table;
+                oldNodeEntries[i] = entry;
+            }
+        }
+
+        private void index(OSMRelation r) {
+            if (old.relationForId(r.id()) == null) {
+                for (Member m : r.members()) {
+                    switch (m.type()) {
+                    case NODE:
+                        OSMNode n = (OSMNode) m.member();
+                        if (oldNodeIds.indexOf(n.id()) < 0) {
+                            index(n.id(), memberNodes, memberNodes.add(n));
+                        }
+                        break;
+                    case WAY:
+                        index((OSMWay) m.member());
+                        break;
+                    default:
+                        index((OSMRelation) m.member());
+                        break;
+                    }
+                }
+                old.addRelation(r);
+            }
+        }
+
+        /**
+         * @return le nœud d'identifiant donné après modification, ou null
+         *         s'il n'existe pas ou a été supprimé
+         */
+        private OSMNode node(long id) {
+            if (changedNodes.indexOf(id) >= 0) {
+                return changes.nodes.get(id);
+            }
+            int i = oldNodeIds.indexOf(id);
+            return i < 0 ? null : oldNodeTables[i].node(oldNodeEntries[i]);
+        }
+
+        /**
+         * @return le numéro de l'entrée, dans la table des chemins
+         *         reconstruits, du nœud d'identifiant donné après
+         *         modification, ou -1 s'il n'existe pas ou a été supprimé ;
+         *         le nœud n'est copié dans la table qu'à sa première
+         *         utilisation
+         */
+        private int nodeEntry(long id) {
+            int entry = nodes.indexOf(id);
+            if (entry >= 0) {
+                return entry;
+            } else if (changedNodes.indexOf(id) >= 0) {
+                OSMNode n = changes.nodes.get(id);
+                return n == null ? -1 : nodes.add(n);
+            }
+            int i = oldNodeIds.indexOf(id);
+            return i < 0 ? -1 : nodes.add(oldNodeTables[i], oldNodeEntries[i]);
+        }
+
+        /**
+         * @return le chemin d'identifiant donné après modification, ou null
+         *         s'il n'existe pas, a été supprimé ou est incomplet
+         */
+        private OSMWay way(long id) {
+            if (newWays.containsKey(id)) {
+                return newWays.get(id);
+            }
+            OSMWay result;
+            if (changes.ways.containsKey(id)) {
+                EntityChange c = changes.ways.get(id);
+                result = c == null ? null : buildWay(c);
+            } else {
+                result = old.wayForId(id);
+                if (result != null && dependsOnChangedNode(result)) {
+                    OSMWay.Builder b = new OSMWay.Builder(id, nodes);
+                    copyAttributes(result, b);
+                    for (int i = 0; i < result.nodesCount(); ++i) {
+                        addNode(b, result.nodeId(i));
+                    }
+                    result = build(b);
+                    changedWayIds.add(id);
+                }
+            }
+            newWays.put(id, result);
+            return result;
+        }
+
+        private boolean dependsOnChangedNode(OSMWay w) {
+            for (int i = 0; i < w.nodesCount(); ++i) {
+                if (changedNodes.indexOf(w.nodeId(i)) >= 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private OSMWay buildWay(EntityChange c) {
+            OSMWay.Builder b = new OSMWay.Builder(c.id, nodes);
+            boolean resolved = true;
+            for (long ref : c.refs) {
+                resolved &= addNode(b, ref);
+            }
+            if (!resolved) {
+                unresolvedWayIds.add(c.id);
+                return null;
+            }
+            Attributes a = c.attributes.build();
+            for (String key : a.keys()) {
+                b.setAttribute(key, a.get(key));
+            }
+            return build(b);
+        }
+
+        /**
+         * ajoute au chemin donné le nœud d'identifiant donné, ou rend le
+         * chemin incomplet si le nœud n'existe pas
+         *
+         * @return faux si le nœud est inconnu (ni dans la carte d'origine ni
+         *         dans le fichier), c-à-d si l'on ne sait pas s'il existe
+         */
+        private boolean addNode(OSMWay.Builder b, long ref) {
+            int entry = nodeEntry(ref);
+            if (entry >= 0) {
+                b.addNodeAt(entry);
+                return true;
+            }
+            b.setIncomplete();
+            return changedNodes.indexOf(ref) >= 0;
+        }
+
+        private static OSMWay build(OSMWay.Builder b) {
+            return b.rejection() == null ? b.build() : null;
+        }
+
+        /**
+         * @return la relation d'identifiant donné après modification, ou
+         *         null si elle n'existe pas, a été supprimée ou est incomplète
+         */
+        private OSMRelation relation(long id) {
+            if (newRelations.containsKey(id)) {
+                return newRelations.get(id);
+            }
+            if (!inProgress.add(id)) {
+                // une relation modifiée qui se contient elle-même est
+                // incomplète, comme pour OSMMapReader
+                return null;
+            }
+            OSMRelation result;
+            if (changes.relations.containsKey(id)) {
+                EntityChange c = changes.relations.get(id);
+                if (c == null) {
+                    result = null;
+                } else {
+                    OSMRelation.Builder b = new OSMRelation.Builder(id);
+                    boolean resolved = true;
+                    for (int i = 0; i < c.refs.size(); ++i) {
+                        resolved &= addMember(b, c.types.get(i),
+                                c.roles.get(i), c.refs.get(i));
+                    }
+                    Attributes a = c.attributes.build();
+                    for (String key : a.keys()) {
+                        b.setAttribute(key, a.get(key));
+                    }
+                    result = resolved ? build(b) : unresolved(id);
+                }
+            } else {
+                result = old.relationForId(id);
+                if (result != null && dependsOnChangedMember(result)) {
+                    OSMRelation.Builder b = new OSMRelation.Builder(id);
+                    copyAttributes(result, b);
+                    boolean resolved = true;
+                    for (Member m : result.members()) {
+                        resolved &= addMember(b, m.type(), m.role(), m
+                                .member().id());
+                    }
+                    result = resolved ? build(b) : unresolved(id);
+                    changedRelationIds.add(id);
+                }
+            }
+            inProgress.remove(id);
+            newRelations.put(id, result);
+            return result;
+        }
+
+        private boolean dependsOnChangedMember(OSMRelation r) {
+            boolean changed = false;
+            for (Member m : r.members()) {
+                if (m.type() == Type.NODE) {
+                    // les nœuds sont construits à la demande : ils sont
+                    // comparés par identifiant, comme ceux des chemins
+                    changed |= changedNodes.indexOf(m.member().id()) >= 0;
+                } else {
+                    // les chemins et relations inchangés sont partagés
+                    changed |= resolve(m.type(), m.member().id()) != m
+                            .member();
+                }
+            }
+            return changed;
+        }
+
+        private OSMEntity resolve(Type type, long ref) {
+            switch (type) {
+            case NODE:
+                return node(ref);
+            case WAY:
+                return way(ref);
+            default:
+                return relation(ref);
+            }
+        }
+
+        /**
+         * ajoute à la relation donnée le membre donné, ou rend la relation
+         * incomplète si le membre n'existe pas
+         *
+         * @return faux si le membre est inconnu (ni dans la carte d'origine
+         *         ni dans le fichier) ou ne peut pas être construit pour
+         *         cette raison
+         */
+        private boolean addMember(OSMRelation.Builder b, Type type,
+                String role, long ref) {
+            OSMEntity member = resolve(type, ref);
+            if (member != null) {
+                b.addMember(type, role, member);
+                return true;
+            }
+            b.setIncomplete();
+            switch (type) {
+            case NODE:
+                return changedNodes.indexOf(ref) >= 0
+                        || oldNodeIds.indexOf(ref) >= 0;
+            case WAY:
+                return !unresolvedWayIds.contains(ref)
+                        && (changes.ways.containsKey(ref) || old
+                                .wayForId(ref) != null);
+            default:
+                return !unresolvedRelationIds.contains(ref)
+                        && (changes.relations.containsKey(ref) || old
+                                .relationForId(ref) != null);
+            }
+        }
+
+        /**
+         * note que la relation d'identifiant donné ne peut pas être
+         * construite faute de connaître l'un de ses membres
+         *
+         * @return null
+         */
+        private OSMRelation unresolved(long id) {
+            unresolvedRelationIds.add(id);
+            return null;
+        }
+
+        private static OSMRelation build(OSMRelation.Builder b) {
+            return b.rejection() == null ? b.build() : null;
+        }
+
+        private static void copyAttributes(OSMEntity e, OSMEntity.Builder b) {
+            for (String key : e.attributes().keys()) {
+                b.setAttribute(key, e.attributes().get(key));
+            }
+        }
+    }
+}
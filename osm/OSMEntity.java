@@ -61,6 +61,19 @@ public abstract class OSMEntity {
         return attributes.get(key);
     }
 
+    /**
+     * Raison pour laquelle une entité en cours de construction ne peut pas
+     * être construite
+     */
+    public enum Rejection {
+        /** une entité référencée (nœud ou membre) n'a pas été trouvée */
+        INCOMPLETE,
+        /** le chemin compte moins de deux nœuds */
+        TOO_FEW_NODES,
+        /** la position du nœud est hors des bornes de PointGeo */
+        INVALID_POSITION
+    }
+
     /**
      * Builder imbriqué statiquement servant à constuire des attributs
      */
@@ -111,5 +124,19 @@ public abstract class OSMEntity {
         public boolean isIncomplete() {
             return incomplete;
         }
+
+        /**
+         * indique, sans lever d'exception, si l'entité en cours de
+         * construction peut être construite. Les lecteurs de fichiers
+         * l'utilisent pour écarter les entités invalides, nombreuses dans
+         * les extraits découpés, sans payer la construction d'une exception.
+         *
+         * @return la raison pour laquelle la méthode build lèverait
+         *         l'exception IllegalStateException, ou null si l'entité peut
+         *         être construite
+         */
+        public Rejection rejection() {
+            return incomplete ? Rejection.INCOMPLETE : null;
+        }
     }
 }
\ No newline at end of file
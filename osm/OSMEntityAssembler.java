@@ -0,0 +1,290 @@
+package ch.epfl.imhof.osm;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import ch.epfl.imhof.PointGeo;
+import ch.epfl.imhof.osm.OSMEntity.Rejection;
+import ch.epfl.imhof.osm.OSMRelation.Member.Type;
+
+/**
+ * Construit une carte OSM à partir des éléments reçus, en résolvant les
+ * références des chemins et des relations vers les entités déjà reçues. Une
+ * entité dont une référence ne peut pas être résolue est incomplète et n'est
+ * pas ajoutée à la carte.
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+final class OSMEntityAssembler implements OSMEntitySink {
+
+    private final OSMMap.Builder map = new OSMMap.Builder();
+    private final OSMBoundingBox view;
+    private final OSMMappedNodeStore nodeStore;
+    private final OSMReadStatistics statistics;
+    private final boolean filterTags;
+    private OSMWay.Builder wayForMap;
+    private OSMRelation.Builder relationForMap;
+    // entité en cours recevant les attributs, null pour un nœud
+    private OSMEntity.Builder tagForEntity;
+
+    /**
+     * Construit un assembleur qui garde toutes les entités complètes
+     */
+    OSMEntityAssembler() {
+        this(null, null, null, false);
+    }
+
+    /**
+     * Construit un assembleur qui ne garde dans la carte que les chemins et
+     * les relations touchant le rectangle donné (les entités qui sortent du
+     * rectangle sont gardées en entier), et qui stocke éventuellement la
+     * position des nœuds hors du tas.
+     *
+     * Le rectangle n'est appliqué que par build : pendant la lecture, toutes
+     * les entités complètes sont gardées, car un chemin hors du rectangle
+     * peut être membre d'une relation qui le touche, lue plus loin. Seule la
+     * carte retournée est réduite, et non le pic de mémoire de la lecture.
+     *
+     * @param view
+     *            le rectangle à dessiner, ou null pour tout garder
+     * @param nodeStore
+     *            la table dans laquelle stocker la position des nœuds, ou
+     *            null pour construire tous les nœuds dans le tas
+     * @param statistics
+     *            les statistiques à remplir, ou null
+     * @param filterTags
+     *            vrai si seuls les attributs utilisés par OSMToGeoTransformer
+     *            et les chemins qu'il dessine doivent faire partie de la
+     *            carte
+     */
+    OSMEntityAssembler(OSMBoundingBox view, OSMMappedNodeStore nodeStore,
+            OSMReadStatistics statistics, boolean filterTags) {
+        this.view = view;
+        this.nodeStore = nodeStore;
+        this.statistics = statistics;
+        this.filterTags = filterTags;
+    }
+
+    @Override
+    public void node(long id, double longitude, double latitude) {
+        // les attributs des nœuds ne sont pas conservés
+        tagForEntity = null;
+        if (statistics != null) {
+            statistics.nodeRead();
+        }
+        if (!PointGeo.isValid(Math.toRadians(longitude),
+                Math.toRadians(latitude))) {
+            rejected(Rejection.INVALID_POSITION);
+            return;
+        }
+        if (nodeStore == null) {
+            int fixedLongitude = fixed(longitude);
+            int fixedLatitude = fixed(latitude);
+            if (fixedLongitude / 1e7 == longitude
+                    && fixedLatitude / 1e7 == latitude) {
+                map.nodeTable().add(id, fixedLongitude, fixedLatitude);
+            } else {
+                // plus de 7 décimales : la position est gardée telle quelle
+                map.addNode(new OSMNode.Builder(id, new PointGeo(
+                        Math.toRadians(longitude), Math.toRadians(latitude)))
+                        .build());
+            }
+        } else {
+            try {
+                nodeStore.put(id, fixed(longitude), fixed(latitude));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Override
+    public void startWay(long id) {
+        if (statistics != null) {
+            statistics.wayRead();
+        }
+        wayForMap = new OSMWay.Builder(id, map.nodeTable());
+        tagForEntity = wayForMap;
+    }
+
+    @Override
+    public void wayNode(long ref) {
+        int entry = nodeEntry(ref);
+        if (entry >= 0) {
+            wayForMap.addNodeAt(entry);
+        } else {
+            wayForMap.setIncomplete();
+        }
+    }
+
+    @Override
+    public void endWay() {
+        Rejection rejection = wayForMap.rejection();
+        if (rejection == null) {
+            map.addWay(wayForMap.build());
+        } else {
+            rejected(rejection);
+        }
+    }
+
+    @Override
+    public void startRelation(long id) {
+        if (statistics != null) {
+            statistics.relationRead();
+        }
+        relationForMap = new OSMRelation.Builder(id);
+        tagForEntity = relationForMap;
+    }
+
+    @Override
+    public void member(Type type, long ref, String role) {
+        if (type == null) {
+            // les membres de type inconnu sont ignorés
+            return;
+        }
+        OSMEntity member;
+        switch (type) {
+        case NODE:
+            member = nodeForId(ref);
+            break;
+        case WAY:
+            member = map.wayForId(ref);
+            break;
+        default:
+            member = map.relationForId(ref);
+            break;
+        }
+        if (member != null) {
+            relationForMap.addMember(type, role, member);
+        } else {
+            relationForMap.setIncomplete();
+        }
+    }
+
+    @Override
+    public void endRelation() {
+        Rejection rejection = relationForMap.rejection();
+        if (rejection == null) {
+            map.addRelation(relationForMap.build());
+        } else {
+            rejected(rejection);
+        }
+    }
+
+    @Override
+    public void tag(String key, String value) {
+        if (tagForEntity != null
+                && (!filterTags || OSMToGeoTransformer.USED_KEYS.contains(key))) {
+            tagForEntity.setAttribute(key, value);
+        }
+    }
+
+    private void rejected(Rejection reason) {
+        if (statistics != null) {
+            statistics.rejected(reason);
+        }
+    }
+
+    /**
+     * construit la carte OSM une fois tous les éléments reçus ; la table des
+     * nœuds est alors compactée en place (voir OSMMapCompactor), si bien que
+     * l'assembleur ne peut plus recevoir d'éléments
+     *
+     * @return la carte OSM construite avec les éléments reçus, dont les
+     *         chemins ne référencent que les nœuds utilisés par la carte
+     */
+    public OSMMap build() {
+        OSMMap all = map.build();
+        OSMMap kept = view == null && !filterTags ? all : keepOnlyDrawn(all);
+        // sans quoi les chemins gardés retiendraient toute la table, y
+        // compris les nœuds des entités écartées
+        OSMMap result = OSMMapCompactor.compact(kept, map.nodeTable());
+        if (statistics != null) {
+            statistics.finish(result, nodeStore);
+        }
+        return result;
+    }
+
+    /**
+     * @return une carte ne contenant que les entités de la carte donnée qui
+     *         touchent le rectangle à dessiner et, si les attributs sont
+     *         filtrés, que les chemins ayant un attribut dessiné
+     */
+    private OSMMap keepOnlyDrawn(OSMMap all) {
+        // les chemins écartés ont servi à résoudre les relations mais ne
+        // font pas partie de la carte
+        List<OSMWay> ways = new ArrayList<>();
+        for (OSMWay w : all.ways()) {
+            if ((view == null || view.intersects(w))
+                    && (!filterTags || isDrawn(w))) {
+                ways.add(w);
+            }
+        }
+        List<OSMRelation> relations = new ArrayList<>();
+        for (OSMRelation r : all.relations()) {
+            if (view == null || view.intersects(r)) {
+                relations.add(r);
+            }
+        }
+        return new OSMMap(ways, relations);
+    }
+
+    /**
+     * @return vrai si le chemin donné a au moins un attribut gardé par
+     *         OSMToGeoTransformer, sans quoi il n'apparaît pas dans la carte
+     *         géométrique
+     */
+    static boolean isDrawn(OSMWay way) {
+        for (String key : OSMToGeoTransformer.OUTPUT_KEYS) {
+            if (way.hasAttribute(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param id
+     *            l'identifiant du nœud
+     * @return le nœud d'identifiant donné, ou null s'il n'a pas été lu
+     */
+    private OSMNode nodeForId(long id) {
+        int entry = nodeEntry(id);
+        return entry < 0 ? null : map.nodeTable().node(entry);
+    }
+
+    /**
+     * retourne le numéro de l'entrée du nœud d'identifiant donné dans la
+     * table des nœuds de la carte. Si la position des nœuds est stockée hors
+     * du tas, le nœud n'est ajouté à la table qu'à sa première utilisation,
+     * puis partagé par les chemins qui le référencent.
+     *
+     * @param id
+     *            l'identifiant du nœud
+     * @return le numéro de l'entrée du nœud, ou -1 s'il n'a pas été lu
+     */
+    private int nodeEntry(long id) {
+        OSMNodeTable nodes = map.nodeTable();
+        int entry = nodes.indexOf(id);
+        if (entry < 0 && nodeStore != null) {
+            long position = nodeStore.get(id);
+            if (position != Long.MIN_VALUE) {
+                entry = nodes.add(id, OSMMappedNodeStore.longitude(position),
+                        OSMMappedNodeStore.latitude(position));
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * @return la coordonnée donnée en 1e-7 degrés ; pour les données OSM
+     *         (7 décimales au plus), la division par 1e7 redonne exactement
+     *         la coordonnée lue
+     */
+    private static int fixed(double degrees) {
+        return (int) Math.round(degrees * 1e7);
+    }
+}
@@ -0,0 +1,82 @@
+package ch.epfl.imhof.osm;
+
+import ch.epfl.imhof.osm.OSMRelation.Member.Type;
+
+/**
+ * Interface représentant le destinataire des éléments lus dans un fichier OSM,
+ * dans l'ordre où ils y apparaissent. Elle découple les lecteurs (qui
+ * décodent le format du fichier) de la construction de la carte.
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+interface OSMEntitySink {
+
+    /**
+     * Reçoit un nœud
+     *
+     * @param id
+     *            l'identifiant du nœud
+     * @param longitude
+     *            la longitude du nœud, en degrés
+     * @param latitude
+     *            la latitude du nœud, en degrés
+     */
+    void node(long id, double longitude, double latitude);
+
+    /**
+     * Reçoit le début d'un chemin
+     *
+     * @param id
+     *            l'identifiant du chemin
+     */
+    void startWay(long id);
+
+    /**
+     * Reçoit une référence vers un nœud du chemin en cours
+     *
+     * @param ref
+     *            l'identifiant du nœud référencé
+     */
+    void wayNode(long ref);
+
+    /**
+     * Reçoit la fin du chemin en cours
+     */
+    void endWay();
+
+    /**
+     * Reçoit le début d'une relation
+     *
+     * @param id
+     *            l'identifiant de la relation
+     */
+    void startRelation(long id);
+
+    /**
+     * Reçoit un membre de la relation en cours
+     *
+     * @param type
+     *            le type du membre, ou null si celui-ci est inconnu
+     * @param ref
+     *            l'identifiant de l'entité référencée
+     * @param role
+     *            le rôle du membre
+     */
+    void member(Type type, long ref, String role);
+
+    /**
+     * Reçoit la fin de la relation en cours
+     */
+    void endRelation();
+
+    /**
+     * Reçoit un attribut de l'entité en cours
+     *
+     * @param key
+     *            la clé de l'attribut
+     * @param value
+     *            la valeur de l'attribut
+     */
+    void tag(String key, String value);
+}
@@ -0,0 +1,197 @@
+package ch.epfl.imhof.osm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ch.epfl.imhof.geometry.ClosedPolyLine;
+import ch.epfl.imhof.geometry.Point;
+import ch.epfl.imhof.geometry.Polygon;
+
+/**
+ * Attribution des anneaux intérieurs d'un multipolygone à ses anneaux
+ * extérieurs. Chaque anneau intérieur devient un trou du plus petit anneau
+ * extérieur (par aire) qui est au moins aussi grand que lui et qui contient
+ * son premier point. L'aire de chaque anneau n'est lue qu'une fois, et les
+ * anneaux extérieurs candidats pour un point sont trouvés dans une grille
+ * régulière couvrant les anneaux extérieurs, où chaque anneau est inscrit
+ * dans les cellules que touche son rectangle englobant : seuls ces
+ * candidats sont testés avec containsPoint.
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+final class OSMHoleAssigner {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final ClosedPolyLine[] outers;
+    private final double[] outerAreas;
+
+    private final int columns;
+    private final int rows;
+    private final double minX;
+    private final double minY;
+    private final double cellWidth;
+    private final double cellHeight;
+    // anneaux extérieurs de chaque cellule, par aire croissante
+    private final int[][] cells;
+
+    /**
+     * Construit l'index des anneaux extérieurs donnés, triés par aire
+     * croissante (à aire égale, dans l'ordre donné)
+     */
+    private OSMHoleAssigner(List<ClosedPolyLine> outerRings) {
+        int n = outerRings.size();
+        double[] areas = new double[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; ++i) {
+            areas[i] = outerRings.get(i).area();
+            order[i] = i;
+        }
+        // le tri des objets est stable
+        Arrays.sort(order, (a, b) -> Double.compare(areas[a], areas[b]));
+        outers = new ClosedPolyLine[n];
+        outerAreas = new double[n];
+        double gMinX = Double.POSITIVE_INFINITY, gMinY = Double.POSITIVE_INFINITY;
+        double gMaxX = Double.NEGATIVE_INFINITY, gMaxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; ++i) {
+            outers[i] = outerRings.get(order[i]);
+            outerAreas[i] = areas[order[i]];
+            gMinX = Math.min(gMinX, outers[i].minX());
+            gMinY = Math.min(gMinY, outers[i].minY());
+            gMaxX = Math.max(gMaxX, outers[i].maxX());
+            gMaxY = Math.max(gMaxY, outers[i].maxY());
+        }
+
+        int side = Math.max(1, (int) Math.sqrt(n));
+        columns = side;
+        rows = side;
+        minX = gMinX;
+        minY = gMinY;
+        cellWidth = Math.max((gMaxX - gMinX) / columns, Double.MIN_NORMAL);
+        cellHeight = Math.max((gMaxY - gMinY) / rows, Double.MIN_NORMAL);
+        int[] counts = new int[columns * rows];
+        for (int i = 0; i < n; ++i) {
+            for (int cell : cellsOf(i)) {
+                counts[cell]++;
+            }
+        }
+        cells = new int[counts.length][];
+        for (int c = 0; c < counts.length; ++c) {
+            cells[c] = counts[c] == 0 ? EMPTY : new int[counts[c]];
+            counts[c] = 0;
+        }
+        // les anneaux sont inscrits par aire croissante
+        for (int i = 0; i < n; ++i) {
+            for (int cell : cellsOf(i)) {
+                cells[cell][counts[cell]++] = i;
+            }
+        }
+    }
+
+    /**
+     * construit les polygones formés par les anneaux donnés
+     *
+     * @param outerRings
+     *            les anneaux extérieurs
+     * @param innerRings
+     *            les anneaux intérieurs
+     * @return un polygone par anneau extérieur, par aire croissante, dont les
+     *         trous sont par aire croissante ; un anneau intérieur qu'aucun
+     *         anneau extérieur ne contient est ignoré
+     */
+    static List<Polygon> polygons(List<ClosedPolyLine> outerRings,
+            List<ClosedPolyLine> innerRings) {
+        OSMHoleAssigner index = new OSMHoleAssigner(outerRings);
+        int n = index.outers.length;
+        List<List<ClosedPolyLine>> holes = new ArrayList<>(n);
+        for (int i = 0; i < n; ++i) {
+            holes.add(new ArrayList<>());
+        }
+
+        double[] innerAreas = new double[innerRings.size()];
+        Integer[] order = new Integer[innerRings.size()];
+        for (int i = 0; i < order.length; ++i) {
+            innerAreas[i] = innerRings.get(i).area();
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(innerAreas[a],
+                innerAreas[b]));
+        for (int i : order) {
+            int shell = index.shellOf(innerRings.get(i), innerAreas[i]);
+            if (shell >= 0) {
+                holes.get(shell).add(innerRings.get(i));
+            }
+        }
+
+        List<Polygon> polygons = new ArrayList<>(n);
+        for (int i = 0; i < n; ++i) {
+            if (holes.get(i).isEmpty()) {
+                polygons.add(new Polygon(index.outers[i]));
+            } else {
+                polygons.add(new Polygon(index.outers[i], holes.get(i)));
+            }
+        }
+        return polygons;
+    }
+
+    /**
+     * @return l'index du plus petit anneau extérieur au moins aussi grand que
+     *         l'anneau intérieur donné et contenant son premier point, ou -1
+     */
+    private int shellOf(ClosedPolyLine inner, double innerArea) {
+        if (outers.length == 0) {
+            return -1;
+        }
+        Point p = inner.firstPoint();
+        int c = column(p.x());
+        int r = row(p.y());
+        if (p.x() < minX || p.y() < minY || c < 0 || r < 0) {
+            return -1;
+        }
+        for (int i : cells[r * columns + c]) {
+            // containsPoint rejette d'abord les points hors du rectangle
+            // englobant
+            if (innerArea <= outerAreas[i] && outers[i].containsPoint(p)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return les cellules de la grille que touche le rectangle englobant de
+     *         l'anneau extérieur d'index donné
+     */
+    private int[] cellsOf(int outer) {
+        int c0 = column(outers[outer].minX());
+        int c1 = column(outers[outer].maxX());
+        int r0 = row(outers[outer].minY());
+        int r1 = row(outers[outer].maxY());
+        int[] result = new int[(c1 - c0 + 1) * (r1 - r0 + 1)];
+        int k = 0;
+        for (int r = r0; r <= r1; ++r) {
+            for (int c = c0; c <= c1; ++c) {
+                result[k++] = r * columns + c;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return la colonne de la grille contenant l'abscisse donnée, bornée à
+     *         la dernière colonne
+     */
+    private int column(double x) {
+        return Math.min(columns - 1, (int) ((x - minX) / cellWidth));
+    }
+
+    /**
+     * @return la ligne de la grille contenant l'ordonnée donnée, bornée à la
+     *         dernière ligne
+     */
+    private int row(double y) {
+        return Math.min(rows - 1, (int) ((y - minY) / cellHeight));
+    }
+}
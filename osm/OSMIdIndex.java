@@ -0,0 +1,118 @@
+package ch.epfl.imhof.osm;
+
+import java.util.Arrays;
+
+/**
+ * Index d'identifiants OSM, qui associe à chaque identifiant ajouté sa
+ * position dans l'ordre d'ajout, sans encapsuler les identifiants dans des
+ * objets. Tant que les identifiants sont ajoutés par ordre croissant (ce qui
+ * est le cas dans les fichiers OSM), la recherche se fait par dichotomie dans
+ * le tableau des identifiants ; sinon, l'index passe à une table de hachage à
+ * adressage ouvert qui référence ce même tableau.
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+final class OSMIdIndex {
+
+    private long[] ids = new long[16];
+    private int size;
+    // positions + 1 des identifiants, 0 pour une case vide ; null tant que
+    // les identifiants sont triés
+    private int[] table;
+
+    /**
+     * ajoute l'identifiant donné à l'index, s'il n'en faisait pas déjà partie
+     *
+     * @param id
+     *            l'identifiant donné
+     * @return la position de l'identifiant dans l'ordre d'ajout ; elle vaut
+     *         l'ancienne taille de l'index si l'identifiant est nouveau
+     */
+    int add(long id) {
+        if (table == null) {
+            if (size == 0 || id > ids[size - 1]) {
+                return append(id);
+            }
+            int p = Arrays.binarySearch(ids, 0, size, id);
+            if (p >= 0) {
+                return p;
+            }
+            rehash(Math.max(16, Integer.highestOneBit(size) * 4));
+        }
+        int slot = slot(id);
+        while (table[slot] != 0) {
+            if (ids[table[slot] - 1] == id) {
+                return table[slot] - 1;
+            }
+            slot = (slot + 1) & (table.length - 1);
+        }
+        int p = append(id);
+        table[slot] = p + 1;
+        if (2 * size > table.length) {
+            rehash(table.length * 2);
+        }
+        return p;
+    }
+
+    /**
+     * @param id
+     *            l'identifiant donné
+     * @return la position de l'identifiant dans l'ordre d'ajout, ou -1 s'il
+     *         ne fait pas partie de l'index
+     */
+    int indexOf(long id) {
+        if (table == null) {
+            int p = Arrays.binarySearch(ids, 0, size, id);
+            return p >= 0 ? p : -1;
+        }
+        int slot = slot(id);
+        while (table[slot] != 0) {
+            if (ids[table[slot] - 1] == id) {
+                return table[slot] - 1;
+            }
+            slot = (slot + 1) & (table.length - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * @param index
+     *            une position de l'index
+     * @return l'identifiant ajouté à la position donnée
+     */
+    long idAt(int index) {
+        return ids[index];
+    }
+
+    /**
+     * @return le nombre d'identifiants de l'index
+     */
+    int size() {
+        return size;
+    }
+
+    private int append(long id) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size + (size >> 1));
+        }
+        ids[size] = id;
+        return size++;
+    }
+
+    private int slot(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & (table.length - 1);
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        for (int p = 0; p < size; ++p) {
+            int slot = slot(ids[p]);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            table[slot] = p + 1;
+        }
+    }
+}
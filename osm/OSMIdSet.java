@@ -0,0 +1,82 @@
+package ch.epfl.imhof.osm;
+
+import java.util.Arrays;
+
+/**
+ * Ensemble d'identifiants OSM représenté par un tableau de bits découpé en
+ * pages de 65536 identifiants, allouées à la demande. Les identifiants OSM
+ * étant presque contigus, chaque identifiant occupe environ un bit. Les
+ * identifiants négatifs ou trop grands, rares, sont gardés dans un
+ * OSMIdIndex.
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+final class OSMIdSet {
+
+    private static final int PAGE_SHIFT = 16;
+    private static final int PAGE_LONGS = 1 << (PAGE_SHIFT - 6);
+
+    private long[][] pages = new long[16][];
+    private final OSMIdIndex others = new OSMIdIndex();
+    private long size;
+
+    /**
+     * ajoute l'identifiant donné à l'ensemble
+     *
+     * @param id
+     *            l'identifiant donné
+     * @return vrai si l'identifiant ne faisait pas déjà partie de l'ensemble
+     */
+    boolean add(long id) {
+        long page = id >> PAGE_SHIFT;
+        if (page < 0 || page >= Integer.MAX_VALUE) {
+            int oldSize = others.size();
+            if (others.add(id) == oldSize) {
+                ++size;
+                return true;
+            }
+            return false;
+        }
+        int p = (int) page;
+        if (p >= pages.length) {
+            pages = Arrays.copyOf(pages, Math.max(p + 1, 2 * pages.length));
+        }
+        if (pages[p] == null) {
+            pages[p] = new long[PAGE_LONGS];
+        }
+        int bit = (int) id & ((1 << PAGE_SHIFT) - 1);
+        long mask = 1L << bit;
+        long word = pages[p][bit >>> 6];
+        if ((word & mask) != 0) {
+            return false;
+        }
+        pages[p][bit >>> 6] = word | mask;
+        ++size;
+        return true;
+    }
+
+    /**
+     * @param id
+     *            l'identifiant donné
+     * @return vrai si l'identifiant fait partie de l'ensemble
+     */
+    boolean contains(long id) {
+        long page = id >> PAGE_SHIFT;
+        if (page < 0 || page >= Integer.MAX_VALUE) {
+            return others.indexOf(id) >= 0;
+        }
+        if (page >= pages.length || pages[(int) page] == null) {
+            return false;
+        }
+        int bit = (int) id & ((1 << PAGE_SHIFT) - 1);
+        return (pages[(int) page][bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * @return le nombre d'identifiants de l'ensemble
+     */
+    long size() {
+        return size;
+    }
+}
@@ -31,6 +31,26 @@ public final class OSMMap {
                 .unmodifiableList(new ArrayList<>(relations));
     }
 
+    private OSMMap(List<OSMWay> ways, List<OSMRelation> relations,
+            boolean unused) {
+        this.ways = ways;
+        this.relations = relations;
+    }
+
+    /**
+     * construit une carte OSM qui utilise directement les listes données,
+     * sans les copier ; elles ne doivent pas être modifiables
+     * 
+     * @param ways
+     *            la liste non modifiable des chemins
+     * @param relations
+     *            la liste non modifiable des relations
+     * @return une carte OSM partageant les listes données
+     */
+    static OSMMap wrap(List<OSMWay> ways, List<OSMRelation> relations) {
+        return new OSMMap(ways, relations, false);
+    }
+
     /**
      * @return la liste des chemins de la carte
      */
@@ -51,18 +71,11 @@ public final class OSMMap {
      */
     public final static class Builder {
 
-        private Map<Long, OSMWay> ways;
-        private Map<Long, OSMRelation> relations;
-        private Map<Long, OSMNode> node;
-
-        /**
-         * Construit un batisseur de Map
-         */
-        public Builder() {
-            ways = new HashMap<>();
-            relations = new HashMap<>();
-            node = new HashMap<>();
-        }
+        private final OSMNodeTable nodes = new OSMNodeTable();
+        private final OSMIdIndex wayIds = new OSMIdIndex();
+        private final List<OSMWay> ways = new ArrayList<>();
+        private final OSMIdIndex relationIds = new OSMIdIndex();
+        private final List<OSMRelation> relations = new ArrayList<>();
 
         /**
          * ajoute le nœud donné au bâtisseur
@@ -71,7 +84,7 @@ public final class OSMMap {
          *            le noeud donné
          */
         public void addNode(OSMNode newNode) {
-            node.put(newNode.id(), newNode);
+            nodes.add(newNode);
         }
 
         /**
@@ -83,7 +96,17 @@ public final class OSMMap {
          * @return le noeud dont l'id unique est égal à celui donné
          */
         public OSMNode nodeForId(long id) {
-           return node.get(id);
+            int i = nodes.indexOf(id);
+            return i < 0 ? null : nodes.node(i);
+        }
+
+        /**
+         * @return la table des nœuds ajoutés au bâtisseur, que les chemins
+         *         de la carte peuvent référencer par le numéro de leurs
+         *         entrées
+         */
+        OSMNodeTable nodeTable() {
+            return nodes;
         }
 
         /**
@@ -93,7 +116,7 @@ public final class OSMMap {
          *            le chemin à ajouter
          */
         public void addWay(OSMWay newWay) {
-            ways.put(newWay.id(), newWay);
+            put(wayIds, ways, newWay.id(), newWay);
         }
 
         /**
@@ -105,7 +128,8 @@ public final class OSMMap {
          * @return le chemin dont l'id unique est égal à celui donné
          */
         public OSMWay wayForId(long id) {
-                return ways.get(id);
+            int i = wayIds.indexOf(id);
+            return i < 0 ? null : ways.get(i);
         }
 
         /**
@@ -115,7 +139,7 @@ public final class OSMMap {
          *            la relation donnée
          */
         public void addRelation(OSMRelation newRelation) {
-            relations.put(newRelation.id(), newRelation);
+            put(relationIds, relations, newRelation.id(), newRelation);
         }
 
         /**
@@ -128,18 +152,33 @@ public final class OSMMap {
          * @return la relation dont l'id unique est égal à celui donné
          */
         public OSMRelation relationForId(long id) {
-            return relations.get(id);
+            int i = relationIds.indexOf(id);
+            return i < 0 ? null : relations.get(i);
         }
 
         /**
          * construit une carte OSM avec les chemins et les relations ajoutés
-         * jusqu'à présent
+         * jusqu'à présent, dans l'ordre de leur premier ajout
          * 
          * @return un objet de type OSMMap
          */
         public OSMMap build() {
 
-            return new OSMMap(ways.values(), relations.values());
+            return new OSMMap(ways, relations);
+        }
+
+        /**
+         * ajoute l'entité donnée à la liste, ou y remplace celle de même
+         * identifiant ajoutée précédemment
+         */
+        private static <E> void put(OSMIdIndex index, List<E> entities,
+                long id, E entity) {
+            int i = index.add(id);
+            if (i == entities.size()) {
+                entities.add(entity);
+            } else {
+                entities.set(i, entity);
+            }
         }
 
     }
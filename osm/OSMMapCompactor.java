@@ -0,0 +1,90 @@
+package ch.epfl.imhof.osm;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ch.epfl.imhof.osm.OSMRelation.Member;
+
+/**
+ * Compactage de la table de nœuds d'une carte. Les chemins d'une carte lue
+ * référencent tous la table de nœuds de la lecture, qui contient aussi les
+ * nœuds isolés et ceux des chemins écartés (hors du rectangle à dessiner,
+ * p.ex.) : tant qu'un chemin gardé référence cette table, tous ces nœuds
+ * restent en mémoire. Le compactage ne garde dans la table, en place, que les
+ * nœuds utilisés par les chemins de la carte et par les chemins membres de
+ * ses relations, puis renumérote ces chemins : il n'alloue pas de seconde
+ * table, et les chemins et les relations de la carte restent les mêmes.
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+final class OSMMapCompactor {
+
+    private OSMMapCompactor() {
+    }
+
+    /**
+     * compacte la table donnée, référencée par les chemins de la carte
+     * donnée ; les chemins qui référencent la table sans faire partie de la
+     * carte ne doivent plus être utilisés
+     *
+     * @param map
+     *            la carte donnée
+     * @param table
+     *            la table de nœuds de la carte
+     * @return la carte donnée, dont les chemins ne référencent plus que les
+     *         nœuds qu'ils utilisent
+     */
+    static OSMMap compact(OSMMap map, OSMNodeTable table) {
+        BitSet used = new BitSet(table.size());
+        Map<OSMEntity, Boolean> marked = new IdentityHashMap<>();
+        List<OSMWay> ways = new ArrayList<>();
+        for (OSMWay w : map.ways()) {
+            mark(w, table, used, marked, ways);
+        }
+        for (OSMRelation r : map.relations()) {
+            mark(r, table, used, marked, ways);
+        }
+        if (used.cardinality() < table.size()) {
+            int[] entries = table.compact(used);
+            for (OSMWay w : ways) {
+                w.renumber(entries);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * note les entrées de la table utilisées par le chemin donné, et le
+     * chemin parmi ceux à renuméroter
+     */
+    private static void mark(OSMWay way, OSMNodeTable table, BitSet used,
+            Map<OSMEntity, Boolean> marked, List<OSMWay> ways) {
+        if (way.table() == table && marked.put(way, Boolean.TRUE) == null) {
+            for (int i = 0; i < way.nodesCount(); ++i) {
+                used.set(way.entry(i));
+            }
+            ways.add(way);
+        }
+    }
+
+    /**
+     * note les entrées de la table utilisées par les chemins membres de la
+     * relation donnée, directement ou par ses relations membres
+     */
+    private static void mark(OSMRelation relation, OSMNodeTable table,
+            BitSet used, Map<OSMEntity, Boolean> marked, List<OSMWay> ways) {
+        if (marked.put(relation, Boolean.TRUE) == null) {
+            for (Member m : relation.members()) {
+                if (m.type() == Member.Type.WAY) {
+                    mark((OSMWay) m.member(), table, used, marked, ways);
+                } else if (m.type() == Member.Type.RELATION) {
+                    mark((OSMRelation) m.member(), table, used, marked, ways);
+                }
+            }
+        }
+    }
+}
@@ -2,20 +2,21 @@ package ch.epfl.imhof.osm;
 
 import java.io.*;
 
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.DefaultHandler;
-import org.xml.sax.helpers.XMLReaderFactory;
 
+import java.util.List;
 import java.util.zip.GZIPInputStream;
 
 import ch.epfl.imhof.PointGeo;
 import ch.epfl.imhof.osm.OSMRelation.Member.Type;
 
-import java.util.HashMap;
-
 /**
  * Classe qui permet de construire une carte OpenStreetMap à partir de données
  * stockées dans un fichier au format XML
@@ -54,155 +55,553 @@ public final class OSMMapReader {
      */
     public static OSMMap readOSMFile(String fileName, boolean unGZip)
             throws SAXException, IOException {
-        OSMMap.Builder map = new OSMMap.Builder();
-        InputStream file = null;
+        return readOSMFile(fileName, unGZip,
+                new OSMReadOptions.Builder().build());
+    }
+
+    /**
+     * lit la carte OSM contenue dans le fichier de nom donné, comme
+     * readOSMFile, mais ne garde que les chemins et les relations qui touchent
+     * le rectangle donné, agrandi de la marge donnée. Les entités qui
+     * traversent le bord du rectangle sont gardées en entier, et les nœuds
+     * qui ne sont utilisés par aucune entité gardée sont retirés, en place,
+     * de la table des nœuds de la carte. Toutes les entités sont lues avant que le rectangle soit
+     * appliqué : seule la carte retournée est réduite, et non la mémoire
+     * utilisée pendant la lecture.
+     * 
+     * @param fileName
+     *            la carte OSM contenue dans le fichier de nom donné
+     * @param unGZip
+     *            l'argument qui détermine si le fichier doit être décompressé
+     *            avec GZIP
+     * @param bottomLeft
+     *            le coin bas-gauche du rectangle à dessiner
+     * @param topRight
+     *            le coin haut-droit du rectangle à dessiner
+     * @param margin
+     *            la marge ajoutée de chaque côté du rectangle, en radians
+     * @return un objet de type OSMMap ne contenant que les entités touchant le
+     *         rectangle
+     * @throws SAXException
+     *             en cas d'erreur dans le format du fichier XML contenant la
+     *             carte
+     * @throws IOException
+     *             en cas d'autre erreur d'entrée/sortie, p.ex. si le fichier
+     *             n'existe pas
+     * @throws IllegalArgumentException
+     *             si la marge est négative ou si les coins ne sont pas dans
+     *             le bon ordre
+     */
+    public static OSMMap readOSMFile(String fileName, boolean unGZip,
+            PointGeo bottomLeft, PointGeo topRight, double margin)
+            throws SAXException, IOException {
+        OSMReadOptions.Builder options = new OSMReadOptions.Builder();
+        options.setBoundingBox(bottomLeft, topRight, margin);
+        return readOSMFile(fileName, unGZip, options.build());
+    }
+
+    /**
+     * lit la carte OSM contenue dans le fichier de nom donné, comme
+     * readOSMFile, avec les options de lecture données. Le fichier peut être
+     * au format XML, PBF ou o5m (voir OSMReadOptions.Builder.setFormat) ; les
+     * options s'appliquent de la même manière quel que soit le format.
+     * 
+     * @param fileName
+     *            la carte OSM contenue dans le fichier de nom donné
+     * @param unGZip
+     *            l'argument qui détermine si le fichier XML doit être
+     *            décompressé avec GZIP
+     * @param options
+     *            les options de lecture
+     * @return un objet de type OSMMap construit à partir du fichier XML donné
+     * @throws SAXException
+     *             en cas d'erreur dans le format du fichier XML contenant la
+     *             carte
+     * @throws IOException
+     *             en cas d'autre erreur d'entrée/sortie, p.ex. si le fichier
+     *             n'existe pas
+     */
+    public static OSMMap readOSMFile(String fileName, boolean unGZip,
+            OSMReadOptions options) throws SAXException, IOException {
+        OSMMappedNodeStore nodeStore = null;
+        try {
+            if (options.nodeStoreDirectory() != null) {
+                nodeStore = new OSMMappedNodeStore(options.nodeStoreDirectory());
+            }
+            OSMEntityAssembler map = new OSMEntityAssembler(
+                    options.boundingBox(), nodeStore, options.statistics(),
+                    options.filterTags());
+            OSMEntitySink sink = map;
+            if (options.twoPass()) {
+                sink = new NodeFilter(neededNodes(fileName, unGZip, options),
+                        map);
+            }
+            try {
+                read(fileName, unGZip, options, true, sink);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return map.build();
+        } finally {
+            if (nodeStore != null) {
+                nodeStore.close();
+            }
+        }
+    }
+
+    /**
+     * lit les fichiers OSM de noms donnés, p.ex. des extraits de régions
+     * voisines, et les réunit en une seule carte, avec les options de lecture
+     * données. Les fichiers sont analysés simultanément (voir
+     * OSMMultiFileReader), chacun dans le format et de la manière demandés
+     * par les options ; les entités présentes dans plusieurs fichiers
+     * n'apparaissent qu'une fois dans la carte, et une entité est complète si
+     * toutes ses références se trouvent dans l'un ou l'autre des fichiers.
+     * 
+     * @param fileNames
+     *            les noms des fichiers
+     * @param unGZip
+     *            l'argument qui détermine si les fichiers doivent être
+     *            décompressés avec GZIP
+     * @param options
+     *            les options de lecture, qui ne peuvent pas demander une
+     *            lecture en deux passes
+     * @return un objet de type OSMMap construit à partir des fichiers donnés
+     * @throws SAXException
+     *             en cas d'erreur dans le format de l'un des fichiers
+     * @throws IOException
+     *             en cas d'autre erreur d'entrée/sortie, p.ex. si un fichier
+     *             n'existe pas
+     * @throws IllegalArgumentException
+     *             si la liste des fichiers est vide ou si les options
+     *             demandent une lecture en deux passes
+     */
+    public static OSMMap readOSMFiles(List<String> fileNames, boolean unGZip,
+            OSMReadOptions options) throws SAXException, IOException {
+        if (fileNames.isEmpty()) {
+            throw new IllegalArgumentException("Aucun fichier à lire");
+        }
+        if (options.twoPass()) {
+            throw new IllegalArgumentException(
+                    "La lecture en deux passes d'un seul fichier ne s'applique pas à plusieurs fichiers");
+        }
+        OSMMappedNodeStore nodeStore = null;
+        try {
+            if (options.nodeStoreDirectory() != null) {
+                nodeStore = new OSMMappedNodeStore(options.nodeStoreDirectory());
+            }
+            OSMEntityAssembler map = new OSMEntityAssembler(
+                    options.boundingBox(), nodeStore, options.statistics(),
+                    options.filterTags());
+            try {
+                OSMMultiFileReader.read(fileNames, unGZip, options, map);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return map.build();
+        } finally {
+            if (nodeStore != null) {
+                nodeStore.close();
+            }
+        }
+    }
+
+    /**
+     * fait la première passe de la lecture en deux passes (voir
+     * OSMReferenceScanner)
+     * 
+     * @return les nœuds utilisés par les entités dessinées
+     */
+    private static OSMIdSet neededNodes(String fileName, boolean unGZip,
+            OSMReadOptions options) throws SAXException, IOException {
+        OSMReferenceScanner scanner = new OSMReferenceScanner();
+        read(fileName, unGZip, options, false, scanner);
+        if (scanner.needsWayScan()) {
+            read(fileName, unGZip, options, false, scanner.wayScanner());
+        }
+        return scanner.neededNodes();
+    }
+
+    /**
+     * analyse le fichier OSM de nom donné, dans le format et de la manière
+     * demandés par les options données, et transmet ses éléments, dans
+     * l'ordre, au destinataire donné, sur le fil appelant. L'argument unGZip
+     * ne s'applique qu'au format XML : un fichier PBF a sa propre
+     * compression, un fichier o5m n'est pas compressé.
+     * 
+     * @param nodes
+     *            faux si le destinataire ignore les nœuds, qui peuvent alors
+     *            ne pas être lus
+     */
+    static void read(String fileName, boolean unGZip,
+            OSMReadOptions options, boolean nodes, OSMEntitySink sink)
+            throws SAXException, IOException {
+        switch (options.format(fileName)) {
+        case PBF:
+            OSMPBFReader.read(fileName, sink);
+            return;
+        case O5M:
+            OSMO5MReader.read(fileName, sink);
+            return;
+        default:
+            break;
+        }
+        switch (options.mode()) {
+        case PIPELINED:
+            OSMPipelinedReader.read(fileName, unGZip, sink);
+            break;
+        case MAPPED:
+            checkUncompressed(unGZip);
+            OSMMappedXMLReader.read(fileName, sink);
+            break;
+        case PARALLEL:
+            checkUncompressed(unGZip);
+            OSMParallelXMLReader.read(fileName, options.threads(), sink);
+            break;
+        default:
+            parse(fileName, unGZip, nodes, sink);
+            break;
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             si le fichier doit être décompressé, ce que les modes
+     *             projetés en mémoire ne permettent pas
+     */
+    private static void checkUncompressed(boolean unGZip) {
         if (unGZip) {
-            file = new GZIPInputStream(new FileInputStream(fileName));
+            throw new IllegalArgumentException(
+                    "La lecture projetée en mémoire exige un fichier non compressé");
+        }
+    }
+
+    /**
+     * analyse le fichier OSM de nom donné et transmet ses éléments, dans
+     * l'ordre, au destinataire donné. Un fichier compressé au format gzip par
+     * blocs dont l'index existe (voir OSMBlockGzip) est décompressé en
+     * parallèle ; sinon, il est analysé avec SAX.
+     * 
+     * @param nodes
+     *            faux si le destinataire ignore les nœuds, qui peuvent alors
+     *            ne pas être lus
+     */
+    static void parse(String fileName, boolean unGZip, boolean nodes,
+            OSMEntitySink sink) throws SAXException, IOException {
+        OSMBlockGzip.Index index = unGZip ? OSMBlockGzip.index(fileName)
+                : null;
+        if (index != null) {
+            OSMBlockGzipReader.read(fileName, index, Runtime.getRuntime()
+                    .availableProcessors(), nodes, sink);
         } else {
-            file = new FileInputStream(fileName);
-        }
-
-        XMLReader r = XMLReaderFactory.createXMLReader();
-        r.setContentHandler(new DefaultHandler() {
-            private OSMWay.Builder wayForMap;
-            private OSMRelation.Builder relationForMap;
-            private HashMap<String, String> tagForEntity = new HashMap<>();
-
-            @Override
-            public void startElement(String uri, String lName, String qName,
-                    Attributes atts) throws SAXException {
-                switch (qName) {
-                case "node":
-                    try {
-                        OSMNode.Builder noeud = new OSMNode.Builder(Long
-                                .parseLong(atts.getValue("id")), new PointGeo(
-                                Math.toRadians(Double.parseDouble(atts
-                                        .getValue("lon"))), Math
-                                        .toRadians(Double.parseDouble(atts
-                                                .getValue("lat")))));
-
-                        OSMNode newNode = noeud.build();
-                        map.addNode(newNode);
-                        tagForEntity = new HashMap<>();
-                    } catch (IllegalStateException | IllegalArgumentException e) {
-                    }
-                    break;
-
-                case "way":
-                    wayForMap = new OSMWay.Builder(Long.parseLong(atts
-                            .getValue("id")));
-                    tagForEntity = new HashMap<>();
-                    break;
-
-                case "nd":
-                    if (map.nodeForId(Long.parseLong(atts.getValue("ref"))) != null) {
-                        wayForMap.addNode(map.nodeForId(Long.parseLong(atts
-                                .getValue("ref"))));
-                    } else {
-                        wayForMap.setIncomplete();
-                    }
-                    break;
-
-                case "relation":
-                    relationForMap = new OSMRelation.Builder(Long
-                            .parseLong(atts.getValue("id")));
-                    tagForEntity = new HashMap<>();
-                    break;
-
-                case "member":
-                    if (atts.getValue("type").equals("node")) {
-                        if (map.nodeForId(Long.parseLong(atts.getValue("ref"))) != null) {
-                            relationForMap.addMember(Type.NODE, atts
-                                    .getValue("role"), map.nodeForId(Long
-                                    .parseLong(atts.getValue("ref"))));
-                        } else {
-                            relationForMap.setIncomplete();
-                        }
-                    } else if (atts.getValue("type").equals("way")) {
-                        if (map.wayForId(Long.parseLong(atts.getValue("ref"))) != null) {
-                            relationForMap.addMember(Type.WAY, atts
-                                    .getValue("role"), map.wayForId(Long
-                                    .parseLong(atts.getValue("ref"))));
-                        } else {
-                            relationForMap.setIncomplete();
-                        }
-                    } else if (atts.getValue("type").equals("relation")) {
-                        if (map.relationForId(Long.parseLong(atts
-                                .getValue("ref"))) != null) {
-                            relationForMap.addMember(Type.RELATION, atts
-                                    .getValue("role"), map.relationForId(Long
-                                    .parseLong(atts.getValue("ref"))));
-                        } else {
-                            relationForMap.setIncomplete();
-                        }
-                    } else {
-
-                    }
-                    break;
-
-                case "tag":
-                    tagForEntity.put(atts.getValue("k"), atts.getValue("v"));
-                    break;
-
-                default:
-                    // ignorer les autres balises
-                    break;
-                }
+            try (InputStream i = openInput(fileName, unGZip)) {
+                parse(i, sink);
+            }
+        }
+    }
+
+    /**
+     * lit la carte OSM contenue dans le fichier de nom donné, comme
+     * readOSMFile, mais en répartissant le travail sur trois fils d'exécution
+     * qui travaillent simultanément : le premier lit et décompresse le
+     * fichier, le deuxième analyse le XML et le troisième (le fil appelant)
+     * résout les références et construit la carte. Les étapes communiquent
+     * par des files bornées, de sorte que la mémoire utilisée reste limitée.
+     * Équivaut à readOSMFile avec l'option OSMReadOptions.Builder.setPipelined,
+     * à laquelle les autres options peuvent être ajoutées.
+     * 
+     * @param fileName
+     *            la carte OSM contenue dans le fichier de nom donné
+     * @param unGZip
+     *            l'argument qui détermine si le fichier doit être décompressé
+     *            avec GZIP
+     * @return un objet de type OSMMap identique à celui que retournerait
+     *         readOSMFile
+     * @throws SAXException
+     *             en cas d'erreur dans le format du fichier XML contenant la
+     *             carte
+     * @throws IOException
+     *             en cas d'autre erreur d'entrée/sortie, p.ex. si le fichier
+     *             n'existe pas
+     */
+    public static OSMMap readOSMFilePipelined(String fileName, boolean unGZip)
+            throws SAXException, IOException {
+        OSMReadOptions.Builder options = new OSMReadOptions.Builder();
+        options.setPipelined(true);
+        return readOSMFile(fileName, unGZip, options.build());
+    }
+
+    /**
+     * lit la carte OSM contenue dans le fichier non compressé de nom donné,
+     * comme readOSMFile, mais en projetant le fichier en mémoire et en
+     * l'analysant directement octet par octet, sans passer par SAX ni créer de
+     * chaînes de caractères pour les identifiants et les coordonnées.
+     * Équivaut à readOSMFile avec l'option OSMReadOptions.Builder.setMapped,
+     * à laquelle les autres options peuvent être ajoutées.
+     *
+     * @param fileName
+     *            la carte OSM contenue dans le fichier de nom donné, non
+     *            compressé
+     * @return un objet de type OSMMap identique à celui que retournerait
+     *         readOSMFile
+     * @throws IOException
+     *             en cas d'erreur dans le format du fichier ou d'autre erreur
+     *             d'entrée/sortie, p.ex. si le fichier n'existe pas
+     */
+    public static OSMMap readOSMFileMapped(String fileName) throws IOException {
+        OSMReadOptions.Builder options = new OSMReadOptions.Builder();
+        options.setMapped(true);
+        return readUnparsed(fileName, options.build());
+    }
+
+    /**
+     * lit la carte OSM contenue dans le fichier non compressé de nom donné,
+     * comme readOSMFileMapped, mais en analysant la section des nœuds, de
+     * loin la plus grande, sur plusieurs fils d'exécution. Les chemins et les
+     * relations sont ensuite lus sur le fil appelant. Équivaut à readOSMFile
+     * avec l'option OSMReadOptions.Builder.setParallel.
+     *
+     * @param fileName
+     *            la carte OSM contenue dans le fichier de nom donné, non
+     *            compressé, dont les nœuds précèdent les chemins et les
+     *            relations (comme dans les fichiers OSM)
+     * @param threads
+     *            le nombre de fils d'exécution analysant les nœuds
+     * @return un objet de type OSMMap identique à celui que retournerait
+     *         readOSMFile
+     * @throws IOException
+     *             en cas d'erreur dans le format du fichier ou d'autre erreur
+     *             d'entrée/sortie, p.ex. si le fichier n'existe pas
+     * @throws IllegalArgumentException
+     *             si le nombre de fils d'exécution n'est pas positif
+     */
+    public static OSMMap readOSMFileParallel(String fileName, int threads)
+            throws IOException {
+        OSMReadOptions.Builder options = new OSMReadOptions.Builder();
+        options.setParallel(threads);
+        return readUnparsed(fileName, options.build());
+    }
+
+    /**
+     * lit le fichier non compressé de nom donné avec readOSMFile, dans un
+     * mode qui n'utilise pas SAX
+     */
+    private static OSMMap readUnparsed(String fileName, OSMReadOptions options)
+            throws IOException {
+        try {
+            return readOSMFile(fileName, false, options);
+        } catch (SAXException e) {
+            // les modes projetés en mémoire n'utilisent pas SAX
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * ouvre le fichier de nom donné, en le décompressant avec gzip si et
+     * seulement si le second argument est vrai
+     * 
+     * @param fileName
+     *            le nom du fichier
+     * @param unGZip
+     *            vrai si le fichier doit être décompressé avec GZIP
+     * @return un flot d'entrée sur le contenu (décompressé) du fichier
+     * @throws IOException
+     *             en cas d'erreur d'entrée/sortie
+     */
+    static InputStream openInput(String fileName, boolean unGZip)
+            throws IOException {
+        if (unGZip) {
+            return new GZIPInputStream(new FileInputStream(fileName));
+        } else {
+            return new FileInputStream(fileName);
+        }
+    }
+
+    /**
+     * analyse le XML OSM du flot donné et transmet ses éléments, dans l'ordre,
+     * au destinataire donné
+     * 
+     * @param input
+     *            le flot contenant le XML
+     * @param sink
+     *            le destinataire des éléments
+     * @throws SAXException
+     *             en cas d'erreur dans le format du XML
+     * @throws IOException
+     *             en cas d'erreur d'entrée/sortie
+     */
+    static void parse(InputStream input, OSMEntitySink sink)
+            throws SAXException, IOException {
+        XMLReader r = xmlReader();
+        r.setContentHandler(new SAXEventHandler(sink));
+        r.parse(new InputSource(input));
+    }
+
+    /**
+     * @return un nouvel analyseur XML, qui donne le nom qualifié des
+     *         éléments
+     * @throws SAXException
+     *             si aucun analyseur ne peut être créé
+     */
+    static XMLReader xmlReader() throws SAXException {
+        try {
+            return SAXParserFactory.newInstance().newSAXParser()
+                    .getXMLReader();
+        } catch (ParserConfigurationException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    /**
+     * Destinataire qui ne transmet que les nœuds de l'ensemble donné (et
+     * leurs attributs), ainsi que tous les chemins et relations
+     */
+    private static final class NodeFilter implements OSMEntitySink {
+
+        private final OSMIdSet nodes;
+        private final OSMEntitySink sink;
+        private boolean skipping;
+
+        private NodeFilter(OSMIdSet nodes, OSMEntitySink sink) {
+            this.nodes = nodes;
+            this.sink = sink;
+        }
+
+        @Override
+        public void node(long id, double longitude, double latitude) {
+            skipping = !nodes.contains(id);
+            if (!skipping) {
+                sink.node(id, longitude, latitude);
+            }
+        }
+
+        @Override
+        public void startWay(long id) {
+            skipping = false;
+            sink.startWay(id);
+        }
+
+        @Override
+        public void wayNode(long ref) {
+            sink.wayNode(ref);
+        }
+
+        @Override
+        public void endWay() {
+            sink.endWay();
+        }
+
+        @Override
+        public void startRelation(long id) {
+            skipping = false;
+            sink.startRelation(id);
+        }
+
+        @Override
+        public void member(Type type, long ref, String role) {
+            sink.member(type, ref, role);
+        }
+
+        @Override
+        public void endRelation() {
+            sink.endRelation();
+        }
 
+        @Override
+        public void tag(String key, String value) {
+            if (!skipping) {
+                sink.tag(key, value);
             }
+        }
+    }
+
+    /**
+     * Gestionnaire SAX qui traduit les balises OSM en éléments transmis au
+     * destinataire donné
+     */
+    static class SAXEventHandler extends DefaultHandler {
 
-            @Override
-            public void endElement(String uri, String lName, String qName) {
-
-                switch (lName) {
-                case "way":
-                    if (!wayForMap.isIncomplete()) {
-                        for (HashMap.Entry<String, String> entry : tagForEntity
-                                .entrySet()) {
-                            wayForMap.setAttribute(entry.getKey(),
-                                    entry.getValue());
-                        }
-                        OSMWay newWay = null;
-                        try {
-                            newWay = wayForMap.build();
-                        } catch (IllegalStateException e) {
-
-                        }
-                        if (newWay != null) {
-                            map.addWay(newWay);
-                        }
-                    }
-                    break;
-
-                case "relation":
-                    if (!relationForMap.isIncomplete()) {
-                        try {
-                            for (HashMap.Entry<String, String> entry : tagForEntity
-                                    .entrySet()) {
-                                relationForMap.setAttribute(entry.getKey(),
-                                        entry.getValue());
-                            }
-                            try {
-                                OSMRelation newRelation = relationForMap
-                                        .build();
-                                map.addRelation(newRelation);
-                            } catch (IllegalStateException e) {
-                            }
-                        } catch (NullPointerException e) {
-                        }
-                    }
-                    break;
-
-                default:
-                    // ignorer les autres balises
-                    break;
+        private final OSMEntitySink sink;
+
+        SAXEventHandler(OSMEntitySink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void startElement(String uri, String lName, String qName,
+                Attributes atts) throws SAXException {
+            switch (qName) {
+            case "node":
+                try {
+                    sink.node(Long.parseLong(atts.getValue("id")),
+                            Double.parseDouble(atts.getValue("lon")),
+                            Double.parseDouble(atts.getValue("lat")));
+                } catch (NumberFormatException e) {
+                    // un nœud mal formé est ignoré
                 }
+                break;
+
+            case "way":
+                sink.startWay(Long.parseLong(atts.getValue("id")));
+                break;
+
+            case "nd":
+                sink.wayNode(Long.parseLong(atts.getValue("ref")));
+                break;
+
+            case "relation":
+                sink.startRelation(Long.parseLong(atts.getValue("id")));
+                break;
+
+            case "member":
+                sink.member(memberType(atts.getValue("type")),
+                        Long.parseLong(atts.getValue("ref")),
+                        atts.getValue("role"));
+                break;
+
+            case "tag":
+                sink.tag(atts.getValue("k"), atts.getValue("v"));
+                break;
+
+            default:
+                // ignorer les autres balises
+                break;
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String lName, String qName) {
+            switch (qName) {
+            case "way":
+                sink.endWay();
+                break;
+
+            case "relation":
+                sink.endRelation();
+                break;
+
+            default:
+                // ignorer les autres balises
+                break;
+            }
+        }
+
+        /**
+         * @param type
+         *            la valeur de l'attribut type d'un membre de relation
+         * @return le type de membre correspondant, ou null s'il est inconnu
+         */
+        private static Type memberType(String type) {
+            switch (type) {
+            case "node":
+                return Type.NODE;
+            case "way":
+                return Type.WAY;
+            case "relation":
+                return Type.RELATION;
+            default:
+                return null;
             }
-        });
-        try (InputStream i = file) {
-            r.parse(new InputSource(i));
         }
-        OSMMap newMap = map.build();
-        return newMap;
     }
 }
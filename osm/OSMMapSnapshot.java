@@ -0,0 +1,655 @@
+package ch.epfl.imhof.osm;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.xml.sax.SAXException;
+
+import ch.epfl.imhof.Attributes;
+import ch.epfl.imhof.osm.OSMRelation.Member;
+
+/**
+ * Instantané binaire d'une carte OSM, qui permet de la recharger sans analyser
+ * à nouveau le fichier OSM dont elle provient. Le fichier contient une table
+ * des chaînes de caractères (clés, valeurs et rôles), la position des nœuds en
+ * virgule fixe, les chemins sous forme de tableaux d'index de nœuds et les
+ * membres des relations sous forme d'index. Il est projeté en mémoire au
+ * chargement et les chemins et les relations ne sont décodés qu'à leur
+ * première utilisation, sans verrou, de sorte que plusieurs fils peuvent
+ * parcourir la carte simultanément ; les nœuds ne sont pas copiés : la table
+ * de nœuds (OSMNodeTable) partagée par tous les chemins lit leur position
+ * directement dans le fichier projeté.
+ *
+ * L'en-tête de l'instantané contient la taille, la date de modification et
+ * une empreinte du fichier source : un instantané qui ne correspond plus au
+ * fichier source est ignoré.
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+public final class OSMMapSnapshot {
+
+    private static final int MAGIC = 0x4F534D53; // "OSMS"
+    private static final int VERSION = 1;
+    // les positions des nœuds sont stockées en radians (double) et non en
+    // 1e-7 degrés, car ce format n'aurait pas été exact
+    private static final int FLAG_DOUBLE_COORDINATES = 1;
+    private static final int HEADER_BYTES = 4 * 3 + 8 * 3 + 4 * 7;
+
+    private static final int SAMPLE_COUNT = 16;
+    private static final int SAMPLE_BYTES = 1 << 16;
+
+    private static final byte TYPE_NODE = 0;
+    private static final byte TYPE_WAY = 1;
+    private static final byte TYPE_RELATION = 2;
+
+    /**
+     * Constructeur par défaut privé et vide car la classe est non instanciable
+     */
+    private OSMMapSnapshot() {
+    }
+
+    /**
+     * retourne la carte de l'instantané de nom donné s'il existe et
+     * correspond au fichier OSM donné ; sinon, lit la carte OSM avec
+     * OSMMapReader.readOSMFile et l'enregistre dans un nouvel instantané
+     *
+     * @param fileName
+     *            le fichier OSM
+     * @param unGZip
+     *            vrai si le fichier OSM doit être décompressé avec GZIP
+     * @param snapshotName
+     *            le fichier de l'instantané
+     * @return la carte OSM du fichier donné
+     * @throws SAXException
+     *             en cas d'erreur dans le format du fichier XML contenant la
+     *             carte
+     * @throws IOException
+     *             en cas d'erreur d'entrée/sortie
+     */
+    public static OSMMap load(String fileName, boolean unGZip,
+            String snapshotName) throws SAXException, IOException {
+        OSMMap map = read(snapshotName, fileName);
+        if (map == null) {
+            map = OSMMapReader.readOSMFile(fileName, unGZip);
+            write(map, snapshotName, fileName);
+        }
+        return map;
+    }
+
+    /**
+     * enregistre la carte donnée dans un instantané, en y notant les
+     * caractéristiques du fichier source. L'instantané est d'abord écrit dans
+     * un fichier temporaire, puis renommé.
+     *
+     * @param map
+     *            la carte à enregistrer
+     * @param snapshotName
+     *            le fichier de l'instantané
+     * @param sourceName
+     *            le fichier OSM dont provient la carte
+     * @throws IOException
+     *             en cas d'erreur d'entrée/sortie, ou si l'instantané
+     *             dépasserait 2 Go
+     */
+    public static void write(OSMMap map, String snapshotName, String sourceName)
+            throws IOException {
+        Path source = Paths.get(sourceName);
+        Path snapshot = Paths.get(snapshotName).toAbsolutePath();
+        Writer w = new Writer(map);
+        Path tmp = Files.createTempFile(snapshot.getParent(), "osm", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                w.write(out, Files.size(source), Files.getLastModifiedTime(
+                        source).toMillis(), sampledHash(source));
+            }
+            Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * charge la carte de l'instantané de nom donné. Les entités ne sont
+     * décodées qu'à leur première utilisation ; un même nœud, chemin ou
+     * relation est toujours représenté par le même objet.
+     *
+     * @param snapshotName
+     *            le fichier de l'instantané
+     * @param sourceName
+     *            le fichier OSM dont l'instantané doit provenir
+     * @return la carte de l'instantané, ou null si l'instantané n'existe pas,
+     *         est d'une autre version ou ne correspond plus au fichier source
+     * @throws IOException
+     *             en cas d'erreur d'entrée/sortie, ou si l'instantané est
+     *             corrompu
+     */
+    public static OSMMap read(String snapshotName, String sourceName)
+            throws IOException {
+        Path snapshot = Paths.get(snapshotName);
+        Path source = Paths.get(sourceName);
+        if (!Files.isRegularFile(snapshot) || !Files.isRegularFile(source)) {
+            return null;
+        }
+        MappedByteBuffer buffer;
+        try (FileChannel c = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            if (c.size() < HEADER_BYTES || c.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            buffer = c.map(MapMode.READ_ONLY, 0, c.size());
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                || buffer.getLong(12) != Files.size(source)
+                || buffer.getLong(20) != Files.getLastModifiedTime(source)
+                        .toMillis() || buffer.getLong(28) != sampledHash(source)) {
+            return null;
+        }
+        try {
+            Decoder d = new Decoder(buffer);
+            return OSMMap.wrap(d.mapWays(), d.mapRelations());
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Instantané corrompu : " + snapshotName, e);
+        }
+    }
+
+    /**
+     * calcule une empreinte du fichier donné à partir de sa taille et de
+     * quelques blocs répartis régulièrement, dont le premier et le dernier ;
+     * lire tout le fichier prendrait presque autant de temps que l'analyser
+     */
+    private static long sampledHash(Path file) throws IOException {
+        long hash = 0xCBF29CE484222325L;
+        try (FileChannel c = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = c.size();
+            hash = (hash ^ size) * 0x100000001B3L;
+            ByteBuffer block = ByteBuffer.allocate(SAMPLE_BYTES);
+            long step = Math.max(0, size - SAMPLE_BYTES) / (SAMPLE_COUNT - 1);
+            for (int i = 0; i < SAMPLE_COUNT; ++i) {
+                block.clear();
+                long position = Math.min(i * step, Math.max(0, size
+                        - SAMPLE_BYTES));
+                while (block.hasRemaining()
+                        && c.read(block, position + block.position()) >= 0) {
+                }
+                for (int j = 0; j < block.position(); ++j) {
+                    hash = (hash ^ (block.get(j) & 0xFF)) * 0x100000001B3L;
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Numérote les entités atteignables depuis une carte et les écrit dans un
+     * instantané
+     */
+    private static final class Writer {
+
+        private final OSMMap map;
+        private final Map<String, Integer> stringIndex = new HashMap<>();
+        private final List<byte[]> strings = new ArrayList<>();
+        // les nœuds des chemins sont construits à chaque accès : ils sont
+        // numérotés par identifiant plutôt que par identité
+        private final OSMIdIndex nodeIndex = new OSMIdIndex();
+        private final List<OSMNode> nodes = new ArrayList<>();
+        private final Map<OSMWay, Integer> wayIndex = new IdentityHashMap<>();
+        private final List<OSMWay> ways = new ArrayList<>();
+        private final Map<OSMRelation, Integer> relationIndex = new IdentityHashMap<>();
+        private final List<OSMRelation> relations = new ArrayList<>();
+        private final List<OSMNode> nodesWithAttributes = new ArrayList<>();
+
+        private Writer(OSMMap map) {
+            this.map = map;
+            for (OSMWay w : map.ways()) {
+                add(w);
+            }
+            for (OSMRelation r : map.relations()) {
+                add(r);
+            }
+        }
+
+        private void write(DataOutputStream out, long sourceSize,
+                long sourceModified, long sourceHash) throws IOException {
+            boolean exact = true;
+            for (OSMNode n : nodes) {
+                exact &= isExact(n.position().longitude())
+                        && isExact(n.position().latitude());
+            }
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(exact ? 0 : FLAG_DOUBLE_COORDINATES);
+            out.writeLong(sourceSize);
+            out.writeLong(sourceModified);
+            out.writeLong(sourceHash);
+            out.writeInt(strings.size());
+            out.writeInt(nodes.size());
+            out.writeInt(ways.size());
+            out.writeInt(relations.size());
+            out.writeInt(map.ways().size());
+            out.writeInt(map.relations().size());
+            out.writeInt(nodesWithAttributes.size());
+
+            long offset = 0;
+            out.writeInt(0);
+            for (byte[] s : strings) {
+                offset += s.length;
+                out.writeInt(checkedOffset(offset));
+            }
+            for (byte[] s : strings) {
+                out.write(s);
+            }
+
+            for (OSMNode n : nodes) {
+                out.writeLong(n.id());
+            }
+            for (OSMNode n : nodes) {
+                double longitude = n.position().longitude();
+                double latitude = n.position().latitude();
+                if (exact) {
+                    out.writeInt(fixed(longitude));
+                    out.writeInt(fixed(latitude));
+                } else {
+                    out.writeDouble(longitude);
+                    out.writeDouble(latitude);
+                }
+            }
+            for (OSMNode n : nodesWithAttributes) {
+                out.writeInt(nodeIndex.indexOf(n.id()));
+                writeAttributes(out, n.attributes());
+            }
+
+            offset = 0;
+            out.writeInt(0);
+            for (OSMWay w : ways) {
+                offset += 16 + 8 * w.attributes().keys().size() + 4
+                        * w.nodesCount();
+                out.writeInt(checkedOffset(offset));
+            }
+            for (OSMWay w : ways) {
+                out.writeLong(w.id());
+                writeAttributes(out, w.attributes());
+                out.writeInt(w.nodesCount());
+                for (int i = 0; i < w.nodesCount(); ++i) {
+                    out.writeInt(nodeIndex.indexOf(w.nodeId(i)));
+                }
+            }
+
+            offset = 0;
+            out.writeInt(0);
+            for (OSMRelation r : relations) {
+                offset += 16 + 8 * r.attributes().keys().size() + 9
+                        * r.members().size();
+                out.writeInt(checkedOffset(offset));
+            }
+            for (OSMRelation r : relations) {
+                out.writeLong(r.id());
+                writeAttributes(out, r.attributes());
+                List<Member> members = r.members();
+                out.writeInt(members.size());
+                for (Member m : members) {
+                    switch (m.type()) {
+                    case NODE:
+                        out.writeByte(TYPE_NODE);
+                        out.writeInt(stringIndex(m.role()));
+                        out.writeInt(nodeIndex.indexOf(m.member().id()));
+                        break;
+                    case WAY:
+                        out.writeByte(TYPE_WAY);
+                        out.writeInt(stringIndex(m.role()));
+                        out.writeInt(wayIndex.get((OSMWay) m.member()));
+                        break;
+                    default:
+                        out.writeByte(TYPE_RELATION);
+                        out.writeInt(stringIndex(m.role()));
+                        out.writeInt(relationIndex.get((OSMRelation) m
+                                .member()));
+                        break;
+                    }
+                }
+            }
+
+            for (OSMWay w : map.ways()) {
+                out.writeInt(wayIndex.get(w));
+            }
+            for (OSMRelation r : map.relations()) {
+                out.writeInt(relationIndex.get(r));
+            }
+            if (out.size() == Integer.MAX_VALUE) {
+                // DataOutputStream.size sature à Integer.MAX_VALUE
+                throw new IOException("Instantané trop grand");
+            }
+        }
+
+        private void writeAttributes(DataOutputStream out, Attributes a)
+                throws IOException {
+            out.writeInt(a.keys().size());
+            for (String key : a.keys()) {
+                out.writeInt(stringIndex(key));
+                out.writeInt(stringIndex(a.get(key)));
+            }
+        }
+
+        private void add(OSMNode n) {
+            if (nodeIndex.add(n.id()) == nodes.size()) {
+                nodes.add(n);
+                if (!n.attributes().isEmpty()) {
+                    nodesWithAttributes.add(n);
+                    addStrings(n.attributes());
+                }
+            }
+        }
+
+        private void add(OSMWay w) {
+            if (!wayIndex.containsKey(w)) {
+                wayIndex.put(w, ways.size());
+                ways.add(w);
+                addStrings(w.attributes());
+                for (OSMNode n : w.nodes()) {
+                    add(n);
+                }
+            }
+        }
+
+        private void add(OSMRelation r) {
+            if (!relationIndex.containsKey(r)) {
+                relationIndex.put(r, relations.size());
+                relations.add(r);
+                addStrings(r.attributes());
+                for (Member m : r.members()) {
+                    addString(m.role());
+                    switch (m.type()) {
+                    case NODE:
+                        add((OSMNode) m.member());
+                        break;
+                    case WAY:
+                        add((OSMWay) m.member());
+                        break;
+                    default:
+                        add((OSMRelation) m.member());
+                        break;
+                    }
+                }
+            }
+        }
+
+        private void addStrings(Attributes a) {
+            for (String key : a.keys()) {
+                addString(key);
+                addString(a.get(key));
+            }
+        }
+
+        private void addString(String s) {
+            if (s != null && !stringIndex.containsKey(s)) {
+                stringIndex.put(s, strings.size());
+                strings.add(s.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        /**
+         * @return l'index de la chaîne donnée, ou -1 pour null
+         */
+        private int stringIndex(String s) {
+            return s == null ? -1 : stringIndex.get(s);
+        }
+
+        private static int checkedOffset(long offset) throws IOException {
+            if (offset > Integer.MAX_VALUE) {
+                throw new IOException("Instantané trop grand");
+            }
+            return (int) offset;
+        }
+
+        /**
+         * @return vrai si l'angle donné, en radians, est retrouvé exactement à
+         *         partir de sa valeur en 1e-7 degrés
+         */
+        private static boolean isExact(double radians) {
+            return Math.toRadians(fixed(radians) / 1e7) == radians;
+        }
+
+        private static int fixed(double radians) {
+            return (int) Math.round(Math.toDegrees(radians) * 1e7);
+        }
+    }
+
+    /**
+     * Décode à la demande les chemins et les relations d'un instantané
+     * projeté en mémoire, et garde ceux qui ont déjà été décodés. Les nœuds
+     * sont copiés à la construction dans une table dont l'entrée i est le
+     * nœud d'index i de l'instantané ; la table n'est plus modifiée ensuite,
+     * et peut donc être lue sans synchronisation par les chemins décodés.
+     */
+    private static final class Decoder {
+
+        private final ByteBuffer buffer;
+        private final boolean doubleCoordinates;
+        private final int mapWayCount;
+        private final int mapRelationCount;
+
+        private final int stringOffsets;
+        private final int stringData;
+        private final int nodeIds;
+        private final int nodeCoordinates;
+        private final int wayOffsets;
+        private final int wayData;
+        private final int relationOffsets;
+        private final int relationData;
+        private final int mapWays;
+        private final int mapRelations;
+
+        // éléments déjà décodés ; ils sont écrits sans verrou, un élément
+        // décodé simultanément par deux fils n'étant gardé qu'une fois
+        private final AtomicReferenceArray<String> strings;
+        private final AtomicReferenceArray<OSMWay> ways;
+        private final AtomicReferenceArray<OSMRelation> relations;
+        // nœuds lus à la demande dans le tampon
+        private final OSMNodeTable nodes;
+        // position des attributs des quelques nœuds qui en ont
+        private final Map<Integer, Integer> nodeAttributes = new HashMap<>();
+
+        private Decoder(ByteBuffer buffer) {
+            this.buffer = buffer;
+            doubleCoordinates = (buffer.getInt(8) & FLAG_DOUBLE_COORDINATES) != 0;
+            int p = 36;
+            int stringCount = buffer.getInt(p);
+            int nodeCount = buffer.getInt(p + 4);
+            int wayCount = buffer.getInt(p + 8);
+            int relationCount = buffer.getInt(p + 12);
+            mapWayCount = buffer.getInt(p + 16);
+            mapRelationCount = buffer.getInt(p + 20);
+            int nodeAttributeCount = buffer.getInt(p + 24);
+
+            stringOffsets = HEADER_BYTES;
+            stringData = stringOffsets + 4 * (stringCount + 1);
+            nodeIds = stringData + buffer.getInt(stringData - 4);
+            nodeCoordinates = nodeIds + 8 * nodeCount;
+            p = nodeCoordinates + (doubleCoordinates ? 16 : 8) * nodeCount;
+            for (int i = 0; i < nodeAttributeCount; ++i) {
+                nodeAttributes.put(buffer.getInt(p), p + 4);
+                p += 8 + 8 * buffer.getInt(p + 4);
+            }
+            wayOffsets = p;
+            wayData = wayOffsets + 4 * (wayCount + 1);
+            relationOffsets = wayData + buffer.getInt(wayData - 4);
+            relationData = relationOffsets + 4 * (relationCount + 1);
+            mapWays = relationData + buffer.getInt(relationData - 4);
+            mapRelations = mapWays + 4 * mapWayCount;
+            if (mapRelations + 4 * mapRelationCount != buffer.capacity()) {
+                throw new IllegalArgumentException();
+            }
+
+            strings = new AtomicReferenceArray<>(stringCount);
+            ways = new AtomicReferenceArray<>(wayCount);
+            relations = new AtomicReferenceArray<>(relationCount);
+            nodes = OSMNodeTable.mapped(buffer, nodeIds, nodeCoordinates,
+                    doubleCoordinates, nodeCount, i -> {
+                        Integer a = nodeAttributes.get(i);
+                        return a == null ? null : attributes(a);
+                    });
+        }
+
+        private List<OSMWay> mapWays() {
+            return new SnapshotList<OSMWay>(mapWayCount) {
+                @Override
+                public OSMWay get(int index) {
+                    return way(buffer.getInt(mapWays + 4 * checked(index)));
+                }
+            };
+        }
+
+        private List<OSMRelation> mapRelations() {
+            return new SnapshotList<OSMRelation>(mapRelationCount) {
+                @Override
+                public OSMRelation get(int index) {
+                    return relation(buffer.getInt(mapRelations + 4
+                            * checked(index)));
+                }
+            };
+        }
+
+        private String string(int i) {
+            if (i < 0) {
+                return null;
+            }
+            String s = strings.get(i);
+            if (s == null) {
+                int from = buffer.getInt(stringOffsets + 4 * i);
+                int to = buffer.getInt(stringOffsets + 4 * i + 4);
+                byte[] bytes = new byte[to - from];
+                for (int j = 0; j < bytes.length; ++j) {
+                    bytes[j] = buffer.get(stringData + from + j);
+                }
+                s = new String(bytes, StandardCharsets.UTF_8);
+                strings.lazySet(i, s);
+            }
+            return s;
+        }
+
+        private OSMWay way(int i) {
+            OSMWay way = ways.get(i);
+            if (way == null) {
+                int p = wayData + buffer.getInt(wayOffsets + 4 * i);
+                long id = buffer.getLong(p);
+                Attributes attributes = attributes(p + 8);
+                p += 12 + 8 * buffer.getInt(p + 8);
+                int count = buffer.getInt(p);
+                // les entrées de la table sont les index des nœuds
+                int[] entries = new int[count];
+                for (int j = 0; j < count; ++j) {
+                    entries[j] = buffer.getInt(p + 4 + 4 * j);
+                }
+                way = published(ways, i, new OSMWay(id, nodes, entries,
+                        attributes));
+            }
+            return way;
+        }
+
+        private OSMRelation relation(int i) {
+            OSMRelation relation = relations.get(i);
+            if (relation == null) {
+                int p = relationData + buffer.getInt(relationOffsets + 4 * i);
+                long id = buffer.getLong(p);
+                Attributes attributes = attributes(p + 8);
+                p += 12 + 8 * buffer.getInt(p + 8);
+                int count = buffer.getInt(p);
+                p += 4;
+                List<Member> members = new ArrayList<>(count);
+                for (int j = 0; j < count; ++j, p += 9) {
+                    String role = string(buffer.getInt(p + 1));
+                    int index = buffer.getInt(p + 5);
+                    switch (buffer.get(p)) {
+                    case TYPE_NODE:
+                        members.add(new Member(Member.Type.NODE, role,
+                                nodes.node(index)));
+                        break;
+                    case TYPE_WAY:
+                        members.add(new Member(Member.Type.WAY, role,
+                                way(index)));
+                        break;
+                    case TYPE_RELATION:
+                        members.add(new Member(Member.Type.RELATION, role,
+                                relation(index)));
+                        break;
+                    default:
+                        throw new IllegalArgumentException();
+                    }
+                }
+                relation = published(relations, i, new OSMRelation(id,
+                        members, attributes));
+            }
+            return relation;
+        }
+
+        /**
+         * garde l'élément décodé donné, sauf si un autre fil a déjà gardé le
+         * même : les chemins et relations restent ainsi uniques, comme dans
+         * la carte enregistrée
+         *
+         * @return l'élément gardé
+         */
+        private static <E> E published(AtomicReferenceArray<E> decoded,
+                int i, E element) {
+            return decoded.compareAndSet(i, null, element) ? element
+                    : decoded.get(i);
+        }
+
+        private Attributes attributes(int p) {
+            Attributes.Builder b = new Attributes.Builder();
+            int count = buffer.getInt(p);
+            for (int j = 0; j < count; ++j) {
+                b.put(string(buffer.getInt(p + 4 + 8 * j)),
+                        string(buffer.getInt(p + 8 + 8 * j)));
+            }
+            return b.build();
+        }
+    }
+
+    /**
+     * Liste non modifiable de taille fixe dont les éléments sont décodés à
+     * la demande
+     */
+    private static abstract class SnapshotList<E> extends AbstractList<E>
+            implements RandomAccess {
+
+        private final int size;
+
+        private SnapshotList(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        protected int checked(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            return index;
+        }
+    }
+}
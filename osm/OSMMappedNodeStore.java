@@ -0,0 +1,203 @@
+package ch.epfl.imhof.osm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Table des positions des nœuds stockée hors du tas, dans un fichier projeté
+ * en mémoire. Chaque nœud occupe 8 octets à une position calculée à partir de
+ * son identifiant (longitude et latitude en virgule fixe, en 1e-7 degrés) ;
+ * le fichier est creux, seules les pages contenant des nœuds occupent de la
+ * place. Les nœuds d'identifiant négatif, rares, sont gardés dans le tas.
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+final class OSMMappedNodeStore implements Closeable {
+
+    private static final int ENTRY_BYTES = 8;
+    private static final int SEGMENT_SHIFT = 27;
+    private static final long SEGMENT_ENTRIES = 1L << SEGMENT_SHIFT;
+    private static final long SEGMENT_BYTES = SEGMENT_ENTRIES * ENTRY_BYTES;
+    // pages du fichier creux, unité de la place réellement occupée
+    private static final int PAGE_SHIFT = 12;
+    private static final int ENTRIES_PER_PAGE_SHIFT = PAGE_SHIFT - 3;
+    // décalage de la latitude stockée, pour qu'une entrée nulle signifie
+    // « absent »
+    private static final int LATITUDE_BIAS = 1_000_000_000;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    // pages écrites de chaque segment
+    private final List<BitSet> writtenPages = new ArrayList<>();
+    private final OSMIdIndex negativeIds = new OSMIdIndex();
+    private int[] negativePositions = new int[0];
+    private long count;
+
+    /**
+     * Construit une table stockée dans un nouveau fichier temporaire du
+     * répertoire donné, supprimé à la fermeture de la table
+     *
+     * @param directory
+     *            le répertoire donné
+     * @throws IOException
+     *             si le fichier ne peut pas être créé
+     */
+    OSMMappedNodeStore(Path directory) throws IOException {
+        this.file = Files.createTempFile(directory, "nodes", ".bin");
+        this.channel = FileChannel.open(file, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.SPARSE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    /**
+     * enregistre la position du nœud donné
+     *
+     * @param id
+     *            l'identifiant du nœud
+     * @param longitude
+     *            la longitude, en 1e-7 degrés
+     * @param latitude
+     *            la latitude, en 1e-7 degrés
+     * @throws IOException
+     *             si le fichier ne peut pas être agrandi
+     */
+    void put(long id, int longitude, int latitude) throws IOException {
+        ++count;
+        if (id < 0) {
+            int p = negativeIds.add(id);
+            if (2 * p + 1 >= negativePositions.length) {
+                negativePositions = Arrays.copyOf(negativePositions,
+                        Math.max(16, negativePositions.length * 2));
+            }
+            negativePositions[2 * p] = longitude;
+            negativePositions[2 * p + 1] = latitude;
+            return;
+        }
+        MappedByteBuffer segment = segment(id >>> SEGMENT_SHIFT, true);
+        int entry = (int) (id & (SEGMENT_ENTRIES - 1));
+        writtenPages.get((int) (id >>> SEGMENT_SHIFT)).set(
+                entry >>> ENTRIES_PER_PAGE_SHIFT);
+        int offset = entry * ENTRY_BYTES;
+        segment.putInt(offset, longitude);
+        segment.putInt(offset + 4, latitude + LATITUDE_BIAS);
+    }
+
+    /**
+     * @param id
+     *            l'identifiant d'un nœud
+     * @return la longitude et la latitude du nœud, en 1e-7 degrés, regroupées
+     *         dans un entier long (longitude dans les 32 bits de poids fort),
+     *         ou Long.MIN_VALUE si le nœud n'a pas été enregistré
+     */
+    long get(long id) {
+        if (id < 0) {
+            int p = negativeIds.indexOf(id);
+            return p < 0 ? Long.MIN_VALUE : pack(negativePositions[2 * p],
+                    negativePositions[2 * p + 1]);
+        }
+        MappedByteBuffer segment;
+        try {
+            segment = segment(id >>> SEGMENT_SHIFT, false);
+        } catch (IOException e) {
+            return Long.MIN_VALUE;
+        }
+        if (segment == null) {
+            return Long.MIN_VALUE;
+        }
+        int offset = (int) (id & (SEGMENT_ENTRIES - 1)) * ENTRY_BYTES;
+        int latitude = segment.getInt(offset + 4);
+        if (latitude == 0) {
+            return Long.MIN_VALUE;
+        }
+        return pack(segment.getInt(offset), latitude - LATITUDE_BIAS);
+    }
+
+    /**
+     * @param position
+     *            une position retournée par get
+     * @return la longitude de la position, en 1e-7 degrés
+     */
+    static int longitude(long position) {
+        return (int) (position >> 32);
+    }
+
+    /**
+     * @param position
+     *            une position retournée par get
+     * @return la latitude de la position, en 1e-7 degrés
+     */
+    static int latitude(long position) {
+        return (int) position;
+    }
+
+    /**
+     * @return le nombre de nœuds enregistrés
+     */
+    long size() {
+        return count;
+    }
+
+    /**
+     * @return le nombre d'octets occupés par la table : celui des pages du
+     *         fichier dans lesquelles au moins un nœud a été écrit (le
+     *         fichier étant creux, les autres n'occupent de place ni sur le
+     *         disque ni en mémoire, bien qu'elles soient projetées), plus
+     *         celui des nœuds d'identifiant négatif gardés dans le tas
+     */
+    long usedBytes() {
+        long pages = 0;
+        for (BitSet written : writtenPages) {
+            if (written != null) {
+                pages += written.cardinality();
+            }
+        }
+        return (pages << PAGE_SHIFT) + 4L * negativePositions.length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        segments.clear();
+        writtenPages.clear();
+        channel.close();
+        Files.deleteIfExists(file);
+    }
+
+    private static long pack(int longitude, int latitude) {
+        return ((long) longitude << 32) | (latitude & 0xFFFFFFFFL);
+    }
+
+    private MappedByteBuffer segment(long index, boolean create)
+            throws IOException {
+        if (index >= Integer.MAX_VALUE) {
+            throw new IOException("Identifiant de nœud trop grand");
+        }
+        int i = (int) index;
+        if (i < segments.size() && segments.get(i) != null) {
+            return segments.get(i);
+        }
+        if (!create) {
+            return null;
+        }
+        while (segments.size() <= i) {
+            segments.add(null);
+            writtenPages.add(null);
+        }
+        MappedByteBuffer segment = channel.map(MapMode.READ_WRITE, i
+                * SEGMENT_BYTES, SEGMENT_BYTES);
+        segments.set(i, segment);
+        writtenPages.set(i, new BitSet());
+        return segment;
+    }
+}
@@ -0,0 +1,79 @@
+package ch.epfl.imhof.osm;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Lecteur de fichiers OSM non compressés qui projette le fichier en mémoire
+ * (par fenêtres successives) et l'analyse directement octet par octet.
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+final class OSMMappedXMLReader {
+
+    private static final long WINDOW_SIZE = 1L << 28;
+
+    /**
+     * Constructeur par défaut privé et vide car la classe est non instanciable
+     */
+    private OSMMappedXMLReader() {
+    }
+
+    /**
+     * lit le fichier OSM de nom donné et transmet ses éléments, dans l'ordre,
+     * au destinataire donné
+     *
+     * @param fileName
+     *            le nom du fichier, non compressé
+     * @param sink
+     *            le destinataire des éléments
+     * @throws IOException
+     *             en cas d'erreur d'entrée/sortie ou si le fichier est mal
+     *             formé
+     */
+    static void read(String fileName, OSMEntitySink sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+                StandardOpenOption.READ)) {
+            read(channel, 0, channel.size(), sink);
+        }
+    }
+
+    /**
+     * analyse la plage donnée du fichier et transmet ses éléments, dans
+     * l'ordre, au destinataire donné
+     *
+     * @param channel
+     *            le canal du fichier
+     * @param from
+     *            la position du début de la plage
+     * @param to
+     *            la position de la fin de la plage, exclue
+     * @param sink
+     *            le destinataire des éléments
+     * @throws IOException
+     *             en cas d'erreur d'entrée/sortie ou si le fichier est mal
+     *             formé
+     */
+    static void read(FileChannel channel, long from, long to,
+            OSMEntitySink sink) throws IOException {
+        OSMXMLTokenizer tokenizer = new OSMXMLTokenizer(sink);
+        long offset = from;
+        while (offset < to) {
+            int length = (int) Math.min(WINDOW_SIZE, to - offset);
+            boolean last = offset + length == to;
+            MappedByteBuffer window = channel.map(MapMode.READ_ONLY, offset,
+                    length);
+            int stop = tokenizer.tokenize(window, 0, length, last);
+            if (stop == 0 && !last) {
+                throw new IOException("Élément XML trop long à la position "
+                        + offset);
+            }
+            offset += stop;
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package ch.epfl.imhof.osm;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.xml.sax.SAXException;
+
+import ch.epfl.imhof.osm.OSMRelation.Member.Type;
+
+/**
+ * Lecteur de plusieurs fichiers OSM voisins (p.ex. un extrait par canton)
+ * formant une seule carte. Chaque fichier est analysé sur son propre fil
+ * d'exécution. Ses nœuds sont regroupés en lots transmis au fil appelant, qui
+ * les rejoue vers le destinataire à mesure que les fichiers sont analysés ;
+ * seuls ses chemins et ses relations sont gardés, dans deux OSMRecordBatch,
+ * jusqu'à la fin de l'analyse de tous les fichiers. Ils sont alors rejoués
+ * sur le fil appelant : les chemins de tous les fichiers, puis leurs
+ * relations, une relation membre d'une autre étant toujours transmise avant
+ * elle. Une entité dont les références sont réparties entre plusieurs
+ * fichiers est ainsi complète, même si elle est incomplète dans chacun
+ * d'eux, et quel que soit l'ordre des fichiers.
+ *
+ * Les entités présentes dans plusieurs fichiers (le long des frontières) ne
+ * sont transmises qu'une fois : les chemins et les relations dans la version
+ * du premier fichier qui les contient, les nœuds dans la version reçue la
+ * première (les extraits d'une même source donnent la même). Les attributs
+ * des nœuds, que la construction de la carte ignore, ne sont pas gardés, ni
+ * ceux des chemins et des relations que le filtre des options écarte.
+ *
+ * Les fichiers sont analysés sur des fils virtuels si la machine virtuelle
+ * Java en offre, sinon sur un fil par processeur.
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+final class OSMMultiFileReader {
+
+    private static final int BATCH_SIZE = 1 << 13;
+    private static final int BATCH_QUEUE_CAPACITY = 16;
+
+    // marque de fin des nœuds d'un fichier
+    private static final OSMRecordBatch END_OF_NODES = new OSMRecordBatch();
+
+    /**
+     * Constructeur par défaut privé et vide car la classe est non instanciable
+     */
+    private OSMMultiFileReader() {
+    }
+
+    /**
+     * lit les fichiers OSM de noms donnés, chacun dans le format et de la
+     * manière demandés par les options données, et transmet leurs éléments
+     * au destinataire donné, qui n'est appelé que depuis le fil appelant
+     *
+     * @param fileNames
+     *            les noms des fichiers
+     * @param unGZip
+     *            vrai si les fichiers doivent être décompressés avec gzip
+     * @param options
+     *            les options de lecture
+     * @param sink
+     *            le destinataire des éléments
+     * @throws SAXException
+     *             en cas d'erreur dans le format de l'un des fichiers
+     * @throws IOException
+     *             en cas d'autre erreur d'entrée/sortie
+     */
+    static void read(List<String> fileNames, boolean unGZip,
+            OSMReadOptions options, OSMEntitySink sink) throws SAXException,
+            IOException {
+        ExecutorService workers = newExecutor(fileNames.size());
+        BlockingQueue<OSMRecordBatch> nodes = new ArrayBlockingQueue<>(
+                BATCH_QUEUE_CAPACITY);
+        List<Future<Splitter>> parsed = new ArrayList<>();
+        try {
+            for (String fileName : fileNames) {
+                parsed.add(workers.submit(() -> {
+                    Splitter s = new Splitter(nodes, options.filterTags());
+                    try {
+                        OSMMapReader.read(fileName, unGZip, options, true, s);
+                        s.flushNodes();
+                    } finally {
+                        // le fil appelant attend la marque de fin de chaque
+                        // fichier, même si l'analyse a échoué
+                        s.endNodes();
+                    }
+                    return s;
+                }));
+            }
+            Deduplicator merged = new Deduplicator(sink);
+            int ended = 0;
+            while (ended < fileNames.size()) {
+                OSMRecordBatch batch = take(nodes);
+                if (batch == END_OF_NODES) {
+                    ++ended;
+                } else {
+                    batch.replay(merged);
+                }
+            }
+            List<Splitter> files = new ArrayList<>();
+            for (Future<Splitter> f : parsed) {
+                files.add(get(f));
+            }
+            for (Splitter s : files) {
+                s.ways.replay(merged);
+            }
+            // membres de type relation de chaque relation qui en a, dans la
+            // version du premier fichier qui la contient
+            Map<Long, long[]> relationMembers = new HashMap<>();
+            for (Splitter s : files) {
+                for (Map.Entry<Long, long[]> e : s.relationMembers.entrySet()) {
+                    relationMembers.putIfAbsent(e.getKey(), e.getValue());
+                }
+            }
+            int levels = merged.levels(relationMembers);
+            for (int level = 0; level < levels; ++level) {
+                merged.level = level;
+                for (Splitter s : files) {
+                    s.relations.replay(merged);
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * @return un exécuteur créant un fil virtuel par tâche si la machine
+     *         virtuelle en offre (Java 21 et suivants), sinon un exécuteur
+     *         d'au plus un fil par processeur
+     */
+    private static ExecutorService newExecutor(int files) {
+        try {
+            return (ExecutorService) Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            int threads = Math.max(1, Math.min(files, Runtime.getRuntime()
+                    .availableProcessors()));
+            return Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "osm-files");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * attend l'analyse d'un fichier et en retourne le résultat, en relançant
+     * l'exception levée par l'analyse
+     */
+    private static Splitter get(Future<Splitter> file) throws SAXException,
+            IOException {
+        try {
+            return file.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SAXException) {
+                throw (SAXException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    /**
+     * attend le prochain lot de nœuds de la file donnée
+     */
+    private static OSMRecordBatch take(BlockingQueue<OSMRecordBatch> nodes)
+            throws InterruptedIOException {
+        try {
+            return nodes.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Destinataire qui transmet les nœuds d'un fichier par lots à la file
+     * donnée et enregistre ses chemins et ses relations, avec leurs
+     * attributs
+     */
+    private static final class Splitter implements OSMEntitySink {
+
+        private final BlockingQueue<OSMRecordBatch> nodeBatches;
+        private final boolean filterTags;
+        private OSMRecordBatch nodes = new OSMRecordBatch();
+        private final OSMRecordBatch ways = new OSMRecordBatch();
+        private final OSMRecordBatch relations = new OSMRecordBatch();
+        private final Map<Long, long[]> relationMembers = new HashMap<>();
+        // lot de l'entité en cours, qui reçoit ses attributs ; null pour un
+        // nœud
+        private OSMRecordBatch current;
+        private long relationId;
+        private long[] members = new long[16];
+        private int memberCount;
+
+        private Splitter(BlockingQueue<OSMRecordBatch> nodeBatches,
+                boolean filterTags) {
+            this.nodeBatches = nodeBatches;
+            this.filterTags = filterTags;
+        }
+
+        /**
+         * transmet le lot de nœuds en cours à la file, s'il n'est pas vide
+         *
+         * @throws InterruptedException
+         *             si le fil est interrompu pendant l'attente
+         */
+        private void flushNodes() throws InterruptedException {
+            if (!nodes.isEmpty()) {
+                nodeBatches.put(nodes);
+                nodes = new OSMRecordBatch();
+            }
+        }
+
+        /**
+         * transmet la marque de fin des nœuds du fichier, sauf si la lecture
+         * a été abandonnée
+         */
+        private void endNodes() {
+            try {
+                nodeBatches.put(END_OF_NODES);
+            } catch (InterruptedException e) {
+                // la lecture a été abandonnée
+            }
+        }
+
+        @Override
+        public void node(long id, double longitude, double latitude) {
+            current = null;
+            nodes.node(id, longitude, latitude);
+            if (nodes.size() >= BATCH_SIZE) {
+                try {
+                    flushNodes();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Lecture abandonnée", e);
+                }
+            }
+        }
+
+        @Override
+        public void startWay(long id) {
+            current = ways;
+            ways.startWay(id);
+        }
+
+        @Override
+        public void wayNode(long ref) {
+            ways.wayNode(ref);
+        }
+
+        @Override
+        public void endWay() {
+            ways.endWay();
+        }
+
+        @Override
+        public void startRelation(long id) {
+            current = relations;
+            relations.startRelation(id);
+            relationId = id;
+            memberCount = 0;
+        }
+
+        @Override
+        public void member(Type type, long ref, String role) {
+            relations.member(type, ref, role);
+            if (type == Type.RELATION) {
+                if (memberCount == members.length) {
+                    members = Arrays.copyOf(members, 2 * memberCount);
+                }
+                members[memberCount++] = ref;
+            }
+        }
+
+        @Override
+        public void endRelation() {
+            relations.endRelation();
+            if (memberCount > 0) {
+                relationMembers.put(relationId,
+                        Arrays.copyOf(members, memberCount));
+            }
+        }
+
+        @Override
+        public void tag(String key, String value) {
+            if (current != null
+                    && (!filterTags || OSMToGeoTransformer.USED_KEYS
+                            .contains(key))) {
+                current.tag(key, value);
+            }
+        }
+    }
+
+    /**
+     * Destinataire qui ne transmet que la première entité reçue de chaque
+     * type et identifiant, avec ses éléments et ses attributs. Les relations
+     * sont transmises par niveaux (voir levels) : seules celles du niveau en
+     * cours passent.
+     */
+    private static final class Deduplicator implements OSMEntitySink {
+
+        private final OSMEntitySink sink;
+        private final OSMIdSet nodeIds = new OSMIdSet();
+        private final OSMIdSet wayIds = new OSMIdSet();
+        private final OSMIdSet relationIds = new OSMIdSet();
+        private final Map<Long, Integer> relationLevels = new HashMap<>();
+        private int level;
+        private boolean skipping;
+
+        private Deduplicator(OSMEntitySink sink) {
+            this.sink = sink;
+        }
+
+        /**
+         * calcule le niveau de chaque relation : 0 pour une relation sans
+         * membre de type relation, sinon un de plus que le plus haut niveau
+         * de ses relations membres. Une relation membre d'un cycle, qui est
+         * de toute façon incomplète, n'est comptée qu'une fois.
+         *
+         * @param relationMembers
+         *            les membres de type relation de chaque relation qui en a
+         * @return le nombre de niveaux
+         */
+        private int levels(Map<Long, long[]> relationMembers) {
+            int levels = 1;
+            for (long id : relationMembers.keySet()) {
+                levels = Math.max(levels,
+                        level(id, relationMembers) + 1);
+            }
+            return levels;
+        }
+
+        private int level(long id, Map<Long, long[]> relationMembers) {
+            Integer known = relationLevels.get(id);
+            if (known != null) {
+                return known;
+            }
+            long[] members = relationMembers.get(id);
+            if (members == null) {
+                return 0;
+            }
+            // une relation en cours de calcul compte pour 0 dans un cycle
+            relationLevels.put(id, 0);
+            int l = 0;
+            for (long m : members) {
+                l = Math.max(l, level(m, relationMembers) + 1);
+            }
+            relationLevels.put(id, l);
+            return l;
+        }
+
+        @Override
+        public void node(long id, double longitude, double latitude) {
+            skipping = !nodeIds.add(id);
+            if (!skipping) {
+                sink.node(id, longitude, latitude);
+            }
+        }
+
+        @Override
+        public void startWay(long id) {
+            skipping = !wayIds.add(id);
+            if (!skipping) {
+                sink.startWay(id);
+            }
+        }
+
+        @Override
+        public void wayNode(long ref) {
+            if (!skipping) {
+                sink.wayNode(ref);
+            }
+        }
+
+        @Override
+        public void endWay() {
+            if (!skipping) {
+                sink.endWay();
+            }
+        }
+
+        @Override
+        public void startRelation(long id) {
+            Integer l = relationLevels.get(id);
+            skipping = (l == null ? 0 : l) != level || !relationIds.add(id);
+            if (!skipping) {
+                sink.startRelation(id);
+            }
+        }
+
+        @Override
+        public void member(Type type, long ref, String role) {
+            if (!skipping) {
+                sink.member(type, ref, role);
+            }
+        }
+
+        @Override
+        public void endRelation() {
+            if (!skipping) {
+                sink.endRelation();
+            }
+        }
+
+        @Override
+        public void tag(String key, String value) {
+            if (!skipping) {
+                sink.tag(key, value);
+            }
+        }
+    }
+}
@@ -4,7 +4,10 @@ import ch.epfl.imhof.PointGeo;
 import ch.epfl.imhof.Attributes;
 
 /**
- * Représente un nœud OSM
+ * Représente un nœud OSM. Les nœuds des chemins étant construits à la
+ * demande depuis la table de nœuds de la carte (voir OSMWay), deux nœuds sont
+ * égaux s'ils ont le même identifiant, la même position et les mêmes
+ * attributs, même s'il s'agit d'objets différents.
  * 
  * @author Cédric Viaccoz (250396)
  * @author Matteo Giorla (246524)
@@ -38,6 +41,26 @@ public final class OSMNode extends OSMEntity {
         return this.position;
     }
 
+    @Override
+    public boolean equals(Object that) {
+        if (this == that) {
+            return true;
+        } else if (!(that instanceof OSMNode)) {
+            return false;
+        }
+        OSMNode n = (OSMNode) that;
+        return id() == n.id()
+                && Double.compare(position.longitude(),
+                        n.position.longitude()) == 0
+                && Double.compare(position.latitude(), n.position.latitude()) == 0
+                && attributes().equals(n.attributes());
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id());
+    }
+
     /**
      * Builder imbriqué statiquement servant à construire un nœud en plusieurs
      * étapes
@@ -71,7 +94,7 @@ public final class OSMNode extends OSMEntity {
          * @return un objet de type OSMNode
          */
         public OSMNode build() throws IllegalStateException {
-            if (isIncomplete()) {
+            if (rejection() != null) {
                 throw new IllegalStateException();
             } else {
                 Attributes a = super.attributes.build();
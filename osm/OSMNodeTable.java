@@ -0,0 +1,467 @@
+package ch.epfl.imhof.osm;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntFunction;
+
+import ch.epfl.imhof.Attributes;
+import ch.epfl.imhof.PointGeo;
+import ch.epfl.imhof.geometry.Point;
+import ch.epfl.imhof.projection.Projection;
+
+/**
+ * Table de nœuds OSM stockés dans des tableaux de types primitifs plutôt
+ * que sous forme d'objets : chaque entrée contient l'identifiant, la
+ * position et, si elle n'est pas vide, la table d'attributs d'un nœud. Les
+ * chemins référencent leurs nœuds par le numéro de leur entrée, et les
+ * objets OSMNode ne sont construits qu'à la demande.
+ *
+ * Les positions sont stockées en virgule fixe, en 1e-7 degrés (la précision
+ * des fichiers OSM), dans deux tableaux d'entiers. Si un nœud ajouté a une
+ * position que la virgule fixe ne représente pas exactement, la table passe
+ * à des tableaux de radians en double précision pour toutes ses entrées, de
+ * sorte que OSMNode.position() redonne toujours la position ajoutée.
+ *
+ * Les entrées ne sont jamais modifiées : un nœud ajouté avec l'identifiant
+ * d'un nœud déjà présent occupe une nouvelle entrée, et seule la recherche
+ * par identifiant est redirigée vers elle. Les chemins construits avant
+ * l'ajout gardent donc l'ancien nœud, comme lorsqu'ils en référençaient
+ * l'objet.
+ *
+ * Une table peut aussi être projetée (voir mapped) : ses entrées sont alors
+ * lues à la demande dans un tampon d'octets, p.ex. un instantané de carte
+ * projeté en mémoire (voir OSMMapSnapshot), sans être copiées dans le tas.
+ * Une telle table ne peut être ni modifiée ni interrogée par identifiant.
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+final class OSMNodeTable {
+
+    private static final Attributes NO_ATTRIBUTES = new Attributes.Builder()
+            .build();
+
+    private OSMIdIndex ids = new OSMIdIndex();
+    // entrée de chaque position de l'index ; null tant qu'elles sont égales
+    private int[] entries;
+
+    private long[] nodeIds = new long[16];
+    // en 1e-7 degrés ; null si la table est passée aux radians
+    private int[] fixedLongitudes = new int[16];
+    private int[] fixedLatitudes = new int[16];
+    // en radians ; null tant que toutes les positions sont exactes en
+    // virgule fixe
+    private double[] longitudes;
+    private double[] latitudes;
+    // null tant qu'aucun nœud n'a d'attribut
+    private Attributes[] attributes;
+    private int size;
+
+    // tampon des entrées d'une table projetée, null sinon
+    private final ByteBuffer mapped;
+    // position des identifiants (8 octets par entrée) et des coordonnées
+    // (8 octets en virgule fixe ou 16 en radians par entrée) dans le tampon
+    private final int mappedIds;
+    private final int mappedCoordinates;
+    private final boolean mappedRadians;
+    private final IntFunction<Attributes> mappedAttributes;
+
+    /**
+     * Construit une table vide
+     */
+    OSMNodeTable() {
+        this.mapped = null;
+        this.mappedIds = 0;
+        this.mappedCoordinates = 0;
+        this.mappedRadians = false;
+        this.mappedAttributes = null;
+    }
+
+    private OSMNodeTable(ByteBuffer buffer, int ids, int coordinates,
+            boolean radians, int size, IntFunction<Attributes> attributes) {
+        this.mapped = buffer;
+        this.mappedIds = ids;
+        this.mappedCoordinates = coordinates;
+        this.mappedRadians = radians;
+        this.mappedAttributes = attributes;
+        this.size = size;
+        this.nodeIds = null;
+        this.fixedLongitudes = this.fixedLatitudes = null;
+    }
+
+    /**
+     * construit une table en lecture seule dont les entrées sont lues à la
+     * demande dans le tampon donné, qui ne doit plus être modifié. Les
+     * lectures utilisant des positions absolues, la table peut être lue par
+     * plusieurs fils simultanément.
+     *
+     * @param buffer
+     *            le tampon contenant les entrées
+     * @param ids
+     *            la position des identifiants des nœuds, 8 octets chacun
+     * @param coordinates
+     *            la position des coordonnées des nœuds : longitude puis
+     *            latitude, en 1e-7 degrés sur 4 octets chacune, ou en radians
+     *            sur 8 octets chacune
+     * @param radians
+     *            vrai si les coordonnées sont en radians
+     * @param size
+     *            le nombre d'entrées
+     * @param attributes
+     *            la fonction qui donne les attributs du nœud d'une entrée,
+     *            ou null s'il n'en a pas
+     * @return la table projetée
+     */
+    static OSMNodeTable mapped(ByteBuffer buffer, int ids, int coordinates,
+            boolean radians, int size, IntFunction<Attributes> attributes) {
+        return new OSMNodeTable(buffer, ids, coordinates, radians, size,
+                attributes);
+    }
+
+    /**
+     * ajoute le nœud donné à la table ; la recherche par identifiant
+     * retourne désormais ce nœud
+     *
+     * @param node
+     *            le nœud à ajouter
+     * @return le numéro de l'entrée du nœud
+     */
+    int add(OSMNode node) {
+        int position = ids.add(node.id());
+        return index(position, append(node));
+    }
+
+    /**
+     * ajoute à la table un nœud sans attribut d'identifiant et de position
+     * donnés ; la recherche par identifiant retourne désormais ce nœud
+     *
+     * @param id
+     *            l'identifiant du nœud
+     * @param longitude
+     *            la longitude du nœud, en 1e-7 degrés
+     * @param latitude
+     *            la latitude du nœud, en 1e-7 degrés
+     * @return le numéro de l'entrée du nœud
+     */
+    int add(long id, int longitude, int latitude) {
+        int position = ids.add(id);
+        int entry = reserve(id);
+        if (fixedLongitudes != null) {
+            fixedLongitudes[entry] = longitude;
+            fixedLatitudes[entry] = latitude;
+        } else {
+            longitudes[entry] = radians(longitude);
+            latitudes[entry] = radians(latitude);
+        }
+        return index(position, entry);
+    }
+
+    /**
+     * ajoute à la table le nœud de l'entrée donnée d'une autre table, sans
+     * passer par un objet OSMNode si les deux tables sont en virgule fixe ;
+     * la recherche par identifiant retourne désormais ce nœud
+     *
+     * @param table
+     *            la table contenant le nœud
+     * @param entry
+     *            le numéro de l'entrée du nœud dans cette table
+     * @return le numéro de l'entrée du nœud dans cette table-ci
+     */
+    int add(OSMNodeTable table, int entry) {
+        if (fixedLongitudes != null && table.isFixed()
+                && table.attributes(entry) == null) {
+            return add(table.id(entry), table.fixedLongitude(entry),
+                    table.fixedLatitude(entry));
+        }
+        return add(table.node(entry));
+    }
+
+    /**
+     * fait pointer la position donnée de l'index des identifiants vers
+     * l'entrée donnée
+     *
+     * @return le numéro de l'entrée
+     */
+    private int index(int position, int entry) {
+        if (entries == null && position != entry) {
+            entries = new int[Math.max(16, ids.size())];
+            for (int i = 0; i < ids.size(); ++i) {
+                entries[i] = i;
+            }
+        }
+        if (entries != null) {
+            if (position == entries.length) {
+                entries = Arrays.copyOf(entries, position + (position >> 1));
+            }
+            entries[position] = entry;
+        }
+        return entry;
+    }
+
+    /**
+     * ajoute le nœud donné à la table sans qu'il puisse être retrouvé par
+     * son identifiant
+     *
+     * @param node
+     *            le nœud à ajouter
+     * @return le numéro de l'entrée du nœud
+     */
+    int append(OSMNode node) {
+        double longitude = node.position().longitude();
+        double latitude = node.position().latitude();
+        int entry = reserve(node.id());
+        if (fixedLongitudes != null
+                && !(isExact(longitude) && isExact(latitude))) {
+            toRadians();
+        }
+        if (fixedLongitudes != null) {
+            fixedLongitudes[entry] = fixed(longitude);
+            fixedLatitudes[entry] = fixed(latitude);
+        } else {
+            longitudes[entry] = longitude;
+            latitudes[entry] = latitude;
+        }
+        if (!node.attributes().isEmpty()) {
+            if (attributes == null) {
+                attributes = new Attributes[nodeIds.length];
+            }
+            attributes[entry] = node.attributes();
+        }
+        return entry;
+    }
+
+    /**
+     * ajoute une entrée d'identifiant donné à la table, en agrandissant ses
+     * tableaux si nécessaire
+     *
+     * @return le numéro de la nouvelle entrée
+     */
+    private int reserve(long id) {
+        if (mapped != null) {
+            throw new UnsupportedOperationException(
+                    "Table de nœuds projetée en lecture seule");
+        }
+        if (size == nodeIds.length) {
+            int capacity = size + (size >> 1);
+            nodeIds = Arrays.copyOf(nodeIds, capacity);
+            if (fixedLongitudes != null) {
+                fixedLongitudes = Arrays.copyOf(fixedLongitudes, capacity);
+                fixedLatitudes = Arrays.copyOf(fixedLatitudes, capacity);
+            } else {
+                longitudes = Arrays.copyOf(longitudes, capacity);
+                latitudes = Arrays.copyOf(latitudes, capacity);
+            }
+            if (attributes != null) {
+                attributes = Arrays.copyOf(attributes, capacity);
+            }
+        }
+        nodeIds[size] = id;
+        return size++;
+    }
+
+    /**
+     * remplace les tableaux en virgule fixe par des tableaux de radians
+     */
+    private void toRadians() {
+        longitudes = new double[nodeIds.length];
+        latitudes = new double[nodeIds.length];
+        for (int i = 0; i < size; ++i) {
+            longitudes[i] = radians(fixedLongitudes[i]);
+            latitudes[i] = radians(fixedLatitudes[i]);
+        }
+        fixedLongitudes = null;
+        fixedLatitudes = null;
+    }
+
+    /**
+     * ne garde dans la table que les entrées données, dans leur ordre, sans
+     * copier les nœuds dans une autre table : les entrées gardées sont
+     * déplacées au début des tableaux, qui sont ensuite réduits à leur
+     * nouvelle taille, et l'index des identifiants est reconstruit. Les
+     * chemins qui référencent la table doivent ensuite être renumérotés
+     * (voir OSMWay.renumber), et les autres ne plus être utilisés.
+     *
+     * @param kept
+     *            les numéros des entrées à garder
+     * @return le nouveau numéro de chaque ancienne entrée, -1 pour une
+     *         entrée qui n'est pas gardée
+     */
+    int[] compact(BitSet kept) {
+        if (mapped != null) {
+            throw new UnsupportedOperationException(
+                    "Table de nœuds projetée en lecture seule");
+        }
+        int[] renumbered = new int[size];
+        Arrays.fill(renumbered, -1);
+        int n = 0;
+        for (int e = kept.nextSetBit(0); e >= 0 && e < size; e = kept
+                .nextSetBit(e + 1)) {
+            nodeIds[n] = nodeIds[e];
+            if (fixedLongitudes != null) {
+                fixedLongitudes[n] = fixedLongitudes[e];
+                fixedLatitudes[n] = fixedLatitudes[e];
+            } else {
+                longitudes[n] = longitudes[e];
+                latitudes[n] = latitudes[e];
+            }
+            if (attributes != null) {
+                attributes[n] = attributes[e];
+            }
+            renumbered[e] = n++;
+        }
+        // la capacité doit rester suffisante pour que reserve l'agrandisse
+        int capacity = Math.max(16, n);
+        nodeIds = Arrays.copyOf(nodeIds, capacity);
+        if (fixedLongitudes != null) {
+            fixedLongitudes = Arrays.copyOf(fixedLongitudes, capacity);
+            fixedLatitudes = Arrays.copyOf(fixedLatitudes, capacity);
+        } else {
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+        }
+        if (attributes != null) {
+            attributes = Arrays.copyOf(attributes, capacity);
+        }
+        size = n;
+        ids = new OSMIdIndex();
+        entries = null;
+        for (int e = 0; e < size; ++e) {
+            index(ids.add(nodeIds[e]), e);
+        }
+        return renumbered;
+    }
+
+    /**
+     * @param id
+     *            l'identifiant donné
+     * @return le numéro de l'entrée du dernier nœud ajouté avec
+     *         l'identifiant donné, ou -1 s'il n'y en a pas
+     */
+    int indexOf(long id) {
+        if (mapped != null) {
+            throw new UnsupportedOperationException(
+                    "Table de nœuds projetée sans index des identifiants");
+        }
+        int position = ids.indexOf(id);
+        return position < 0 || entries == null ? position : entries[position];
+    }
+
+    /**
+     * @return le nombre d'entrées de la table
+     */
+    int size() {
+        return size;
+    }
+
+    long id(int entry) {
+        return mapped == null ? nodeIds[entry] : mapped.getLong(mappedIds + 8
+                * entry);
+    }
+
+    /**
+     * @return la longitude du nœud de l'entrée donnée, en radians
+     */
+    double longitude(int entry) {
+        if (mapped != null) {
+            return mappedRadians ? mapped.getDouble(mappedCoordinates + 16
+                    * entry) : radians(fixedLongitude(entry));
+        }
+        return fixedLongitudes != null ? radians(fixedLongitudes[entry])
+                : longitudes[entry];
+    }
+
+    /**
+     * @return la latitude du nœud de l'entrée donnée, en radians
+     */
+    double latitude(int entry) {
+        if (mapped != null) {
+            return mappedRadians ? mapped.getDouble(mappedCoordinates + 16
+                    * entry + 8) : radians(fixedLatitude(entry));
+        }
+        return fixedLatitudes != null ? radians(fixedLatitudes[entry])
+                : latitudes[entry];
+    }
+
+    /**
+     * @return vrai si les positions de la table sont en virgule fixe
+     */
+    private boolean isFixed() {
+        return mapped == null ? fixedLongitudes != null : !mappedRadians;
+    }
+
+    /**
+     * @return la longitude du nœud de l'entrée donnée, en 1e-7 degrés ; la
+     *         table doit être en virgule fixe
+     */
+    private int fixedLongitude(int entry) {
+        return mapped == null ? fixedLongitudes[entry] : mapped
+                .getInt(mappedCoordinates + 8 * entry);
+    }
+
+    /**
+     * @return la latitude du nœud de l'entrée donnée, en 1e-7 degrés ; la
+     *         table doit être en virgule fixe
+     */
+    private int fixedLatitude(int entry) {
+        return mapped == null ? fixedLatitudes[entry] : mapped
+                .getInt(mappedCoordinates + 8 * entry + 4);
+    }
+
+    /**
+     * @return les attributs du nœud de l'entrée donnée, ou null s'il n'en a
+     *         pas
+     */
+    private Attributes attributes(int entry) {
+        if (mapped != null) {
+            return mappedAttributes.apply(entry);
+        }
+        return attributes == null ? null : attributes[entry];
+    }
+
+    /**
+     * @param projection
+     *            la projection à utiliser
+     * @return la projection du nœud de l'entrée donnée, calculée
+     *         directement depuis la virgule fixe si possible
+     */
+    Point project(Projection projection, int entry) {
+        if (isFixed()) {
+            return projection.project(fixedLongitude(entry),
+                    fixedLatitude(entry));
+        } else {
+            return projection.project(new PointGeo(longitude(entry),
+                    latitude(entry)));
+        }
+    }
+
+    /**
+     * @return un nœud égal à celui de l'entrée donnée, construit à chaque
+     *         appel
+     */
+    OSMNode node(int entry) {
+        Attributes a = attributes(entry);
+        return new OSMNode(id(entry), new PointGeo(longitude(entry),
+                latitude(entry)), a == null ? NO_ATTRIBUTES : a);
+    }
+
+    /**
+     * @return l'angle donné en 1e-7 degrés, converti en radians
+     */
+    static double radians(int fixed) {
+        return Math.toRadians(fixed / 1e7);
+    }
+
+    /**
+     * @return vrai si l'angle donné, en radians, est redonné exactement par
+     *         sa conversion en virgule fixe ; c'est le cas des coordonnées
+     *         lues dans un fichier OSM, qui ont 7 décimales au plus
+     */
+    static boolean isExact(double radians) {
+        return radians(fixed(radians)) == radians;
+    }
+
+    private static int fixed(double radians) {
+        return (int) Math.round(Math.toDegrees(radians) * 1e7);
+    }
+}
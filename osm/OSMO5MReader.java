@@ -0,0 +1,383 @@
+package ch.epfl.imhof.osm;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.xml.sax.SAXException;
+
+import ch.epfl.imhof.osm.OSMRelation.Member.Type;
+
+/**
+ * Classe qui permet de construire une carte OpenStreetMap à partir de données
+ * stockées dans un fichier au format binaire o5m. Dans ce format, les
+ * identifiants, les coordonnées et les références sont codés par différence
+ * avec la valeur précédente, et les chaînes de caractères déjà vues sont
+ * remplacées par leur rang dans une table des 15000 dernières chaînes.
+ *
+ * Les éléments lus sont transmis au même assembleur que pour OSMMapReader :
+ * la carte construite est celle que construirait OSMMapReader à partir du
+ * même fichier au format XML.
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+public final class OSMO5MReader {
+
+    private static final int NODE = 0x10;
+    private static final int WAY = 0x11;
+    private static final int RELATION = 0x12;
+    private static final int HEADER = 0xE0;
+    private static final int END_OF_FILE = 0xFE;
+    private static final int RESET = 0xFF;
+    // les jeux de données 0xF0 à 0xFF n'ont ni longueur ni contenu
+    private static final int FIRST_WITHOUT_LENGTH = 0xF0;
+
+    private static final int STRING_TABLE_SIZE = 15000;
+    // longueur maximale, zéros terminaux compris, des chaînes ajoutées à la
+    // table
+    private static final int MAX_STRING_ENTRY = 252;
+
+    /**
+     * Constructeur par défaut privé et vide car la classe est non instanciable
+     */
+    private OSMO5MReader() {
+    }
+
+    /**
+     * lit la carte OSM contenue dans le fichier o5m de nom donné. Équivaut à
+     * OSMMapReader.readOSMFile avec le format OSMReadOptions.Format.O5M, qui
+     * permet d'ajouter d'autres options de lecture.
+     *
+     * @param fileName
+     *            la carte OSM contenue dans le fichier de nom donné
+     * @return un objet de type OSMMap identique à celui que retournerait
+     *         OSMMapReader.readOSMFile pour le même fichier au format XML
+     * @throws IOException
+     *             en cas d'erreur dans le format du fichier ou d'autre erreur
+     *             d'entrée/sortie, p.ex. si le fichier n'existe pas
+     */
+    public static OSMMap readO5MFile(String fileName) throws IOException {
+        OSMReadOptions.Builder options = new OSMReadOptions.Builder();
+        options.setFormat(OSMReadOptions.Format.O5M);
+        try {
+            return OSMMapReader.readOSMFile(fileName, false, options.build());
+        } catch (SAXException e) {
+            // le format o5m n'est pas analysé avec SAX
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * lit le fichier o5m de nom donné et transmet ses éléments, dans l'ordre,
+     * au destinataire donné
+     *
+     * @param fileName
+     *            le nom du fichier
+     * @param sink
+     *            le destinataire des éléments
+     * @throws IOException
+     *             en cas d'erreur dans le format du fichier ou d'autre erreur
+     *             d'entrée/sortie
+     */
+    static void read(String fileName, OSMEntitySink sink) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(
+                fileName), 1 << 16)) {
+            new Decoder(in, sink).read();
+        }
+    }
+
+    /**
+     * Décodeur d'un flot o5m, qui garde les valeurs précédentes des champs
+     * codés par différence et la table des chaînes
+     */
+    private static final class Decoder {
+
+        private final InputStream in;
+        private final OSMEntitySink sink;
+
+        private byte[] data = new byte[1 << 16];
+        private int position;
+        private int limit;
+
+        private long nodeId, wayId, relationId;
+        private long longitude, latitude;
+        private long timestamp, changeset;
+        private long wayNode;
+        private final long[] memberIds = new long[3];
+
+        private final String[] keys = new String[STRING_TABLE_SIZE];
+        private final String[] values = new String[STRING_TABLE_SIZE];
+        private int stringCount;
+        private int nextString;
+
+        private String key, value;
+
+        private Decoder(InputStream in, OSMEntitySink sink) {
+            this.in = in;
+            this.sink = sink;
+        }
+
+        private void read() throws IOException {
+            if (in.read() != RESET) {
+                throw new IOException("Fichier o5m invalide");
+            }
+            int type;
+            while ((type = in.read()) >= 0 && type != END_OF_FILE) {
+                if (type == RESET) {
+                    reset();
+                    continue;
+                }
+                if (type >= FIRST_WITHOUT_LENGTH) {
+                    continue;
+                }
+                readDataset();
+                switch (type) {
+                case NODE:
+                    node();
+                    break;
+                case WAY:
+                    way();
+                    break;
+                case RELATION:
+                    relation();
+                    break;
+                case HEADER:
+                    if (limit != 4 || data[0] != 'o' || data[1] != '5'
+                            || data[2] != 'm' || data[3] != '2') {
+                        throw new IOException("Fichier o5m invalide");
+                    }
+                    break;
+                default:
+                    // les autres jeux de données sont ignorés
+                    break;
+                }
+            }
+        }
+
+        /**
+         * remet à zéro les valeurs précédentes et vide la table des chaînes
+         */
+        private void reset() {
+            nodeId = wayId = relationId = 0;
+            longitude = latitude = 0;
+            timestamp = changeset = 0;
+            wayNode = 0;
+            memberIds[0] = memberIds[1] = memberIds[2] = 0;
+            stringCount = nextString = 0;
+        }
+
+        /**
+         * lit la longueur et le contenu du jeu de données suivant
+         */
+        private void readDataset() throws IOException {
+            long length = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = in.read();
+                if (b < 0 || shift > 28) {
+                    throw new IOException("Fichier o5m tronqué");
+                }
+                length |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            if (length > Integer.MAX_VALUE - 8) {
+                throw new IOException("Jeu de données o5m trop grand");
+            }
+            if (length > data.length) {
+                data = new byte[(int) length];
+            }
+            limit = (int) length;
+            if (in.readNBytes(data, 0, limit) != limit) {
+                throw new IOException("Fichier o5m tronqué");
+            }
+            position = 0;
+        }
+
+        private void node() throws IOException {
+            nodeId += readSigned();
+            readVersion();
+            if (position == limit) {
+                // nœud supprimé (fichiers de modifications)
+                return;
+            }
+            longitude += readSigned();
+            latitude += readSigned();
+            sink.node(nodeId, longitude / 1e7, latitude / 1e7);
+            tags();
+        }
+
+        private void way() throws IOException {
+            wayId += readSigned();
+            readVersion();
+            if (position == limit) {
+                return;
+            }
+            sink.startWay(wayId);
+            int refsEnd = referencesEnd();
+            while (position < refsEnd) {
+                wayNode += readSigned();
+                sink.wayNode(wayNode);
+            }
+            tags();
+            sink.endWay();
+        }
+
+        private void relation() throws IOException {
+            relationId += readSigned();
+            readVersion();
+            if (position == limit) {
+                return;
+            }
+            sink.startRelation(relationId);
+            int refsEnd = referencesEnd();
+            while (position < refsEnd) {
+                long delta = readSigned();
+                readString();
+                int t = key.isEmpty() ? -1 : key.charAt(0) - '0';
+                if (t >= 0 && t < 3) {
+                    memberIds[t] += delta;
+                    sink.member(Type.values()[t], memberIds[t],
+                            key.substring(1));
+                }
+            }
+            tags();
+            sink.endRelation();
+        }
+
+        /**
+         * lit la version, et si elle est présente la date, le groupe de
+         * modifications et l'auteur, qui sont ignorés
+         */
+        private void readVersion() throws IOException {
+            if (readUnsigned() != 0) {
+                timestamp += readSigned();
+                if (timestamp != 0) {
+                    changeset += readSigned();
+                    readAuthor();
+                }
+            }
+        }
+
+        /**
+         * @return la position de la fin de la section des références
+         */
+        private int referencesEnd() throws IOException {
+            long length = readUnsigned();
+            if (length > limit - position) {
+                throw new IOException("Références o5m invalides");
+            }
+            return position + (int) length;
+        }
+
+        private void tags() throws IOException {
+            while (position < limit) {
+                readPair();
+                sink.tag(key, value);
+            }
+        }
+
+        /**
+         * lit une paire de chaînes, en ligne ou référencée, dans key et value
+         */
+        private void readPair() throws IOException {
+            if (!fromTable()) {
+                int start = position;
+                key = zeroTerminated();
+                value = zeroTerminated();
+                addString(start);
+            }
+        }
+
+        /**
+         * lit une chaîne seule, en ligne ou référencée, dans key
+         */
+        private void readString() throws IOException {
+            if (!fromTable()) {
+                int start = position;
+                key = zeroTerminated();
+                value = null;
+                addString(start);
+            }
+        }
+
+        /**
+         * lit l'identifiant et le nom de l'auteur, qui occupent une case de
+         * la table des chaînes
+         */
+        private void readAuthor() throws IOException {
+            if (!fromTable()) {
+                int start = position;
+                readUnsigned();
+                zeroTerminated();
+                zeroTerminated();
+                key = value = null;
+                addString(start);
+            }
+        }
+
+        /**
+         * lit la référence d'une chaîne ; si elle n'est pas nulle, copie la
+         * chaîne référencée dans key et value
+         *
+         * @return vrai si la chaîne est référencée, faux si elle suit en ligne
+         */
+        private boolean fromTable() throws IOException {
+            long ref = readUnsigned();
+            if (ref == 0) {
+                return false;
+            }
+            if (ref > stringCount) {
+                throw new IOException("Référence de chaîne o5m invalide");
+            }
+            int i = Math.floorMod(nextString - (int) ref, STRING_TABLE_SIZE);
+            key = keys[i];
+            value = values[i];
+            return true;
+        }
+
+        private void addString(int start) {
+            if (position - start <= MAX_STRING_ENTRY) {
+                keys[nextString] = key;
+                values[nextString] = value;
+                nextString = (nextString + 1) % STRING_TABLE_SIZE;
+                stringCount = Math.min(stringCount + 1, STRING_TABLE_SIZE);
+            }
+        }
+
+        private String zeroTerminated() throws IOException {
+            int start = position;
+            while (position < limit && data[position] != 0) {
+                ++position;
+            }
+            if (position == limit) {
+                throw new IOException("Chaîne o5m non terminée");
+            }
+            return new String(data, start, position++ - start,
+                    StandardCharsets.UTF_8);
+        }
+
+        private long readUnsigned() throws IOException {
+            long result = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (position == limit || shift > 63) {
+                    throw new IOException("Nombre o5m invalide");
+                }
+                b = data[position++];
+                result |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return result;
+        }
+
+        private long readSigned() throws IOException {
+            long u = readUnsigned();
+            return (u >>> 1) ^ -(u & 1);
+        }
+    }
+}
@@ -0,0 +1,714 @@
+package ch.epfl.imhof.osm;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.xml.sax.SAXException;
+
+import ch.epfl.imhof.osm.OSMRelation.Member.Type;
+
+/**
+ * Classe qui permet de construire une carte OpenStreetMap à partir de données
+ * stockées dans un fichier au format PBF (« .osm.pbf »). Les blocs du fichier
+ * étant compressés indépendamment, ils sont décodés en parallèle, puis leurs
+ * éléments sont transmis dans l'ordre du fichier, de sorte que les nœuds,
+ * chemins et relations sont résolus exactement comme avec OSMMapReader.
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+public final class OSMPBFReader {
+
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+    private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+
+    /**
+     * Constructeur par défaut privé et vide car la classe est non instanciable
+     */
+    private OSMPBFReader() {
+    }
+
+    /**
+     * lit la carte OSM contenue dans le fichier PBF de nom donné. Équivaut à
+     * OSMMapReader.readOSMFile avec le format OSMReadOptions.Format.PBF, qui
+     * permet d'ajouter d'autres options de lecture.
+     *
+     * @param fileName
+     *            la carte OSM contenue dans le fichier de nom donné
+     * @return un objet de type OSMMap construit à partir du fichier PBF donné
+     * @throws IOException
+     *             en cas d'erreur dans le format du fichier ou d'autre erreur
+     *             d'entrée/sortie, p.ex. si le fichier n'existe pas
+     */
+    public static OSMMap readPBFFile(String fileName) throws IOException {
+        OSMReadOptions.Builder options = new OSMReadOptions.Builder();
+        options.setFormat(OSMReadOptions.Format.PBF);
+        try {
+            return OSMMapReader.readOSMFile(fileName, false, options.build());
+        } catch (SAXException e) {
+            // le format PBF n'est pas analysé avec SAX
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * lit le fichier PBF de nom donné et transmet ses éléments, dans l'ordre,
+     * au destinataire donné, qui n'est appelé que depuis le fil appelant
+     *
+     * @param fileName
+     *            le nom du fichier
+     * @param sink
+     *            le destinataire des éléments
+     * @throws IOException
+     *             en cas d'erreur dans le format du fichier ou d'autre erreur
+     *             d'entrée/sortie
+     */
+    static void read(String fileName, OSMEntitySink sink) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "osm-pbf");
+            t.setDaemon(true);
+            return t;
+        });
+        Queue<Future<OSMRecordBatch>> pending = new ArrayDeque<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(fileName)))) {
+            byte[] blob;
+            while ((blob = nextBlob(in)) != null) {
+                if (blob.length == 0) {
+                    continue;
+                }
+                byte[] data = blob;
+                pending.add(workers.submit(() -> decodeBlock(data)));
+                // borne le nombre de blocs décodés en avance
+                if (pending.size() >= 2 * threads) {
+                    replay(pending.remove(), sink);
+                }
+            }
+            while (!pending.isEmpty()) {
+                replay(pending.remove(), sink);
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * attend le décodage d'un bloc puis rejoue ses éléments vers le
+     * destinataire donné
+     */
+    private static void replay(Future<OSMRecordBatch> block, OSMEntitySink sink)
+            throws IOException {
+        try {
+            block.get().replay(sink);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * lit l'en-tête et le contenu du prochain bloc du fichier. Le bloc
+     * d'en-tête est vérifié immédiatement.
+     *
+     * @return le contenu (compressé) du prochain bloc de données, un tableau
+     *         vide s'il s'agit d'un bloc à ignorer, ou null à la fin du
+     *         fichier
+     */
+    private static byte[] nextBlob(DataInputStream in) throws IOException {
+        int headerSize;
+        try {
+            headerSize = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (headerSize < 0 || headerSize > MAX_HEADER_SIZE) {
+            throw new IOException("En-tête de bloc PBF invalide");
+        }
+        byte[] header = new byte[headerSize];
+        in.readFully(header);
+        ProtobufInput h = new ProtobufInput(header, 0, headerSize);
+        String type = null;
+        int dataSize = -1;
+        while (h.hasMore()) {
+            int tag = h.readTag();
+            switch (tag >>> 3) {
+            case 1:
+                type = h.readString();
+                break;
+            case 3:
+                dataSize = (int) h.readVarint();
+                break;
+            default:
+                h.skip(tag);
+                break;
+            }
+        }
+        if (dataSize < 0 || dataSize > MAX_BLOB_SIZE) {
+            throw new IOException("Taille de bloc PBF invalide");
+        }
+        byte[] blob = new byte[dataSize];
+        in.readFully(blob);
+        if ("OSMHeader".equals(type)) {
+            checkHeader(uncompress(blob));
+            return new byte[0];
+        } else if ("OSMData".equals(type)) {
+            return blob;
+        } else {
+            // les types de blocs inconnus doivent être ignorés
+            return new byte[0];
+        }
+    }
+
+    /**
+     * vérifie que le lecteur prend en charge toutes les fonctionnalités
+     * requises par le fichier
+     */
+    private static void checkHeader(byte[] headerBlock) throws IOException {
+        ProtobufInput h = new ProtobufInput(headerBlock, 0, headerBlock.length);
+        while (h.hasMore()) {
+            int tag = h.readTag();
+            if (tag >>> 3 == 4) {
+                String feature = h.readString();
+                if (!feature.equals("OsmSchema-V0.6")
+                        && !feature.equals("DenseNodes")) {
+                    throw new IOException(
+                            "Fonctionnalité PBF non prise en charge : "
+                                    + feature);
+                }
+            } else {
+                h.skip(tag);
+            }
+        }
+    }
+
+    /**
+     * décompresse le contenu d'un bloc
+     */
+    private static byte[] uncompress(byte[] blob) throws IOException {
+        ProtobufInput b = new ProtobufInput(blob, 0, blob.length);
+        int rawSize = -1;
+        byte[] raw = null;
+        int zlibStart = -1;
+        int zlibEnd = -1;
+        while (b.hasMore()) {
+            int tag = b.readTag();
+            switch (tag >>> 3) {
+            case 1:
+                int length = b.readLength();
+                raw = Arrays.copyOfRange(blob, b.position(), b.position()
+                        + length);
+                b.skipBytes(length);
+                break;
+            case 2:
+                rawSize = (int) b.readVarint();
+                break;
+            case 3:
+                int zlibLength = b.readLength();
+                zlibStart = b.position();
+                zlibEnd = zlibStart + zlibLength;
+                b.skipBytes(zlibLength);
+                break;
+            case 4:
+            case 5:
+            case 6:
+            case 7:
+                throw new IOException(
+                        "Compression PBF non prise en charge (type "
+                                + (tag >>> 3) + ")");
+            default:
+                b.skip(tag);
+                break;
+            }
+        }
+        if (raw != null) {
+            return raw;
+        }
+        if (zlibStart < 0 || rawSize < 0 || rawSize > MAX_BLOB_SIZE) {
+            throw new IOException("Bloc PBF invalide");
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(blob, zlibStart, zlibEnd - zlibStart);
+            byte[] data = new byte[rawSize];
+            int n = 0;
+            while (n < rawSize && !inflater.finished()) {
+                int read = inflater.inflate(data, n, rawSize - n);
+                if (read == 0 && (inflater.needsInput()
+                        || inflater.needsDictionary())) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != rawSize) {
+                throw new IOException("Bloc PBF tronqué");
+            }
+            return data;
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * décompresse et décode un bloc de données (PrimitiveBlock)
+     *
+     * @param blob
+     *            le contenu compressé du bloc
+     * @return les éléments du bloc, dans l'ordre
+     */
+    private static OSMRecordBatch decodeBlock(byte[] blob) throws IOException {
+        byte[] data = uncompress(blob);
+        ProtobufInput p = new ProtobufInput(data, 0, data.length);
+        String[] strings = new String[0];
+        long granularity = 100;
+        long latOffset = 0;
+        long lonOffset = 0;
+        int[] groups = new int[16];
+        int groupCount = 0;
+        while (p.hasMore()) {
+            int tag = p.readTag();
+            switch (tag >>> 3) {
+            case 1:
+                strings = stringTable(p.readMessage());
+                break;
+            case 2:
+                int length = p.readLength();
+                if (groupCount + 2 > groups.length) {
+                    groups = Arrays.copyOf(groups, groups.length * 2);
+                }
+                groups[groupCount++] = p.position();
+                groups[groupCount++] = p.position() + length;
+                p.skipBytes(length);
+                break;
+            case 17:
+                granularity = p.readVarint();
+                break;
+            case 19:
+                latOffset = p.readVarint();
+                break;
+            case 20:
+                lonOffset = p.readVarint();
+                break;
+            default:
+                p.skip(tag);
+                break;
+            }
+        }
+
+        Block block = new Block(strings, granularity, latOffset, lonOffset);
+        for (int i = 0; i < groupCount; i += 2) {
+            ProtobufInput g = new ProtobufInput(data, groups[i], groups[i + 1]);
+            while (g.hasMore()) {
+                int tag = g.readTag();
+                switch (tag >>> 3) {
+                case 1:
+                    block.node(g.readMessage());
+                    break;
+                case 2:
+                    block.denseNodes(g.readMessage());
+                    break;
+                case 3:
+                    block.way(g.readMessage());
+                    break;
+                case 4:
+                    block.relation(g.readMessage());
+                    break;
+                default:
+                    g.skip(tag);
+                    break;
+                }
+            }
+        }
+        return block.records;
+    }
+
+    /**
+     * décode la table de chaînes d'un bloc
+     */
+    private static String[] stringTable(ProtobufInput t) throws IOException {
+        String[] strings = new String[64];
+        int count = 0;
+        while (t.hasMore()) {
+            int tag = t.readTag();
+            if (tag >>> 3 == 1) {
+                if (count == strings.length) {
+                    strings = Arrays.copyOf(strings, count * 2);
+                }
+                strings[count++] = t.readString();
+            } else {
+                t.skip(tag);
+            }
+        }
+        return Arrays.copyOf(strings, count);
+    }
+
+    /**
+     * Décodeur des entités d'un bloc de données, qui les enregistre dans un
+     * lot d'éléments
+     */
+    private static final class Block {
+        private final String[] strings;
+        private final long granularity;
+        private final long latOffset;
+        private final long lonOffset;
+        private final OSMRecordBatch records = new OSMRecordBatch();
+
+        private Block(String[] strings, long granularity, long latOffset,
+                long lonOffset) {
+            this.strings = strings;
+            this.granularity = granularity;
+            this.latOffset = latOffset;
+            this.lonOffset = lonOffset;
+        }
+
+        /**
+         * @return la coordonnée en degrés correspondant à la valeur codée
+         *         donnée ; le numérateur étant entier, la division est
+         *         correctement arrondie comme la lecture du XML
+         */
+        private double degrees(long offset, long value) {
+            return (offset + granularity * value) / 1e9;
+        }
+
+        private String string(long index) throws IOException {
+            if (index < 0 || index >= strings.length) {
+                throw new IOException("Indice de chaîne PBF invalide");
+            }
+            return strings[(int) index];
+        }
+
+        private void node(ProtobufInput n) throws IOException {
+            long id = 0;
+            long lat = 0;
+            long lon = 0;
+            while (n.hasMore()) {
+                int tag = n.readTag();
+                switch (tag >>> 3) {
+                case 1:
+                    id = n.readSignedVarint();
+                    break;
+                case 8:
+                    lat = n.readSignedVarint();
+                    break;
+                case 9:
+                    lon = n.readSignedVarint();
+                    break;
+                default:
+                    // les attributs des nœuds sont ignorés
+                    n.skip(tag);
+                    break;
+                }
+            }
+            records.node(id, degrees(lonOffset, lon), degrees(latOffset, lat));
+        }
+
+        private void denseNodes(ProtobufInput d) throws IOException {
+            LongList ids = new LongList();
+            LongList lats = new LongList();
+            LongList lons = new LongList();
+            while (d.hasMore()) {
+                int tag = d.readTag();
+                switch (tag >>> 3) {
+                case 1:
+                    d.readSignedVarints(tag, ids);
+                    break;
+                case 8:
+                    d.readSignedVarints(tag, lats);
+                    break;
+                case 9:
+                    d.readSignedVarints(tag, lons);
+                    break;
+                default:
+                    // les attributs des nœuds sont ignorés
+                    d.skip(tag);
+                    break;
+                }
+            }
+            if (lats.size != ids.size || lons.size != ids.size) {
+                throw new IOException("Nœuds denses PBF incohérents");
+            }
+            long id = 0;
+            long lat = 0;
+            long lon = 0;
+            for (int i = 0; i < ids.size; ++i) {
+                id += ids.values[i];
+                lat += lats.values[i];
+                lon += lons.values[i];
+                records.node(id, degrees(lonOffset, lon),
+                        degrees(latOffset, lat));
+            }
+        }
+
+        private void way(ProtobufInput w) throws IOException {
+            long id = 0;
+            LongList keys = new LongList();
+            LongList vals = new LongList();
+            LongList refs = new LongList();
+            while (w.hasMore()) {
+                int tag = w.readTag();
+                switch (tag >>> 3) {
+                case 1:
+                    id = w.readVarint();
+                    break;
+                case 2:
+                    w.readVarints(tag, keys);
+                    break;
+                case 3:
+                    w.readVarints(tag, vals);
+                    break;
+                case 8:
+                    w.readSignedVarints(tag, refs);
+                    break;
+                default:
+                    w.skip(tag);
+                    break;
+                }
+            }
+            records.startWay(id);
+            long ref = 0;
+            for (int i = 0; i < refs.size; ++i) {
+                ref += refs.values[i];
+                records.wayNode(ref);
+            }
+            tags(keys, vals);
+            records.endWay();
+        }
+
+        private void relation(ProtobufInput r) throws IOException {
+            long id = 0;
+            LongList keys = new LongList();
+            LongList vals = new LongList();
+            LongList roles = new LongList();
+            LongList memberIds = new LongList();
+            LongList types = new LongList();
+            while (r.hasMore()) {
+                int tag = r.readTag();
+                switch (tag >>> 3) {
+                case 1:
+                    id = r.readVarint();
+                    break;
+                case 2:
+                    r.readVarints(tag, keys);
+                    break;
+                case 3:
+                    r.readVarints(tag, vals);
+                    break;
+                case 8:
+                    r.readVarints(tag, roles);
+                    break;
+                case 9:
+                    r.readSignedVarints(tag, memberIds);
+                    break;
+                case 10:
+                    r.readVarints(tag, types);
+                    break;
+                default:
+                    r.skip(tag);
+                    break;
+                }
+            }
+            if (roles.size != memberIds.size || types.size != memberIds.size) {
+                throw new IOException("Relation PBF incohérente");
+            }
+            records.startRelation(id);
+            long ref = 0;
+            for (int i = 0; i < memberIds.size; ++i) {
+                ref += memberIds.values[i];
+                Type type;
+                switch ((int) types.values[i]) {
+                case 0:
+                    type = Type.NODE;
+                    break;
+                case 1:
+                    type = Type.WAY;
+                    break;
+                case 2:
+                    type = Type.RELATION;
+                    break;
+                default:
+                    type = null;
+                    break;
+                }
+                records.member(type, ref, string((int) roles.values[i]));
+            }
+            tags(keys, vals);
+            records.endRelation();
+        }
+
+        private void tags(LongList keys, LongList vals) throws IOException {
+            if (keys.size != vals.size) {
+                throw new IOException("Attributs PBF incohérents");
+            }
+            for (int i = 0; i < keys.size; ++i) {
+                records.tag(string(keys.values[i]), string(vals.values[i]));
+            }
+        }
+    }
+
+    /**
+     * Liste extensible d'entiers longs
+     */
+    private static final class LongList {
+        private long[] values = new long[16];
+        private int size;
+
+        private void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    /**
+     * Lecteur minimal du format binaire « protocol buffers », sur une plage
+     * d'un tableau d'octets
+     */
+    private static final class ProtobufInput {
+        private final byte[] data;
+        private int position;
+        private final int limit;
+
+        private ProtobufInput(byte[] data, int from, int to) {
+            this.data = data;
+            this.position = from;
+            this.limit = to;
+        }
+
+        private boolean hasMore() {
+            return position < limit;
+        }
+
+        private int position() {
+            return position;
+        }
+
+        private int readTag() throws IOException {
+            return (int) readVarint();
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= limit) {
+                    throw new IOException("Message PBF tronqué");
+                }
+                byte b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Entier PBF invalide");
+        }
+
+        private long readSignedVarint() throws IOException {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private int readLength() throws IOException {
+            long length = readVarint();
+            if (length < 0 || length > limit - position) {
+                throw new IOException("Message PBF tronqué");
+            }
+            return (int) length;
+        }
+
+        private void skipBytes(int length) {
+            position += length;
+        }
+
+        private String readString() throws IOException {
+            int length = readLength();
+            String s = new String(data, position, length,
+                    StandardCharsets.UTF_8);
+            position += length;
+            return s;
+        }
+
+        private ProtobufInput readMessage() throws IOException {
+            int length = readLength();
+            ProtobufInput message = new ProtobufInput(data, position, position
+                    + length);
+            position += length;
+            return message;
+        }
+
+        /**
+         * lit un champ d'entiers, compacté ou non, selon le type donné par
+         * l'étiquette
+         */
+        private void readVarints(int tag, LongList values) throws IOException {
+            if ((tag & 7) == 2) {
+                int length = readLength();
+                int end = position + length;
+                while (position < end) {
+                    values.add(readVarint());
+                }
+            } else {
+                values.add(readVarint());
+            }
+        }
+
+        private void readSignedVarints(int tag, LongList values)
+                throws IOException {
+            if ((tag & 7) == 2) {
+                int length = readLength();
+                int end = position + length;
+                while (position < end) {
+                    values.add(readSignedVarint());
+                }
+            } else {
+                values.add(readSignedVarint());
+            }
+        }
+
+        /**
+         * saute le champ dont l'étiquette vient d'être lue
+         */
+        private void skip(int tag) throws IOException {
+            switch (tag & 7) {
+            case 0:
+                readVarint();
+                break;
+            case 1:
+                position += 8;
+                break;
+            case 2:
+                int length = readLength();
+                position += length;
+                break;
+            case 5:
+                position += 4;
+                break;
+            default:
+                throw new IOException("Type de champ PBF invalide");
+            }
+            if (position > limit) {
+                throw new IOException("Message PBF tronqué");
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package ch.epfl.imhof.osm;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Lecteur de fichiers OSM non compressés qui analyse la section des nœuds en
+ * parallèle. Dans un fichier OSM trié, les nœuds précèdent les chemins et les
+ * relations ; le début de la section des chemins est trouvé par dichotomie
+ * sur la position dans le fichier, puis la section des nœuds est découpée en
+ * plages commençant chacune par un élément {@code <node}. Chaque plage est
+ * analysée par un fil d'exécution dans un OSMRecordBatch, et les lots sont
+ * rejoués dans l'ordre du fichier sur le fil appelant, avant l'analyse du
+ * reste du fichier : le destinataire reçoit donc les mêmes éléments, dans le
+ * même ordre, qu'avec OSMMappedXMLReader.
+ *
+ * Comme un attribut XML ne peut pas contenir de caractère '<', le début de
+ * l'élément suivant une position quelconque peut être trouvé sans analyser
+ * ce qui précède ; seuls les commentaires, absents des fichiers OSM, font
+ * exception.
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+final class OSMParallelXMLReader {
+
+    private static final int CHUNK_SIZE = 1 << 22;
+    private static final int PROBE_SIZE = 1 << 16;
+
+    private static final int NODE = 0;
+    private static final int OTHER = 1;
+    private static final int END = 2;
+
+    /**
+     * Constructeur par défaut privé et vide car la classe est non instanciable
+     */
+    private OSMParallelXMLReader() {
+    }
+
+    /**
+     * lit le fichier OSM de nom donné et transmet ses éléments, dans l'ordre,
+     * au destinataire donné, qui n'est appelé que depuis le fil appelant
+     *
+     * @param fileName
+     *            le nom du fichier, non compressé
+     * @param threads
+     *            le nombre de fils d'exécution analysant les nœuds
+     * @param sink
+     *            le destinataire des éléments
+     * @throws IOException
+     *             en cas d'erreur d'entrée/sortie ou si le fichier est mal
+     *             formé
+     */
+    static void read(String fileName, int threads, OSMEntitySink sink)
+            throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException(
+                    "Le nombre de fils d'exécution doit être positif");
+        }
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "osm-xml");
+            t.setDaemon(true);
+            return t;
+        });
+        Queue<Future<OSMRecordBatch>> pending = new ArrayDeque<>();
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            long wayStart = waySectionStart(channel, size);
+            long from = 0;
+            while (from < wayStart) {
+                long to = wayStart;
+                if (wayStart - from > CHUNK_SIZE) {
+                    long[] next = nextElement(channel, from + CHUNK_SIZE, size);
+                    if (next[1] == NODE && next[0] < wayStart) {
+                        to = next[0];
+                    }
+                }
+                long chunkFrom = from, chunkTo = to;
+                pending.add(workers.submit(() -> {
+                    OSMRecordBatch batch = new OSMRecordBatch();
+                    OSMMappedXMLReader.read(channel, chunkFrom, chunkTo, batch);
+                    return batch;
+                }));
+                // borne le nombre de plages analysées en avance
+                if (pending.size() >= 2 * threads) {
+                    replay(pending.remove(), sink);
+                }
+                from = to;
+            }
+            while (!pending.isEmpty()) {
+                replay(pending.remove(), sink);
+            }
+            OSMMappedXMLReader.read(channel, wayStart, size, sink);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * attend l'analyse d'une plage puis rejoue ses éléments vers le
+     * destinataire donné
+     */
+    private static void replay(Future<OSMRecordBatch> chunk,
+            OSMEntitySink sink) throws IOException {
+        try {
+            chunk.get().replay(sink);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * @return la position du premier chemin ou de la première relation du
+     *         fichier, ou sa taille s'il n'en contient pas
+     */
+    private static long waySectionStart(FileChannel channel, long size)
+            throws IOException {
+        // plus petite position après laquelle le premier élément n'est pas
+        // un nœud
+        long low = 0, high = size;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (nextElement(channel, middle, size)[1] != NODE) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return nextElement(channel, low, size)[0];
+    }
+
+    /**
+     * cherche le premier nœud, chemin ou relation commençant à la position
+     * donnée ou après
+     *
+     * @return un tableau contenant la position de l'élément et son genre
+     *         (NODE, OTHER pour un chemin ou une relation), ou la taille du
+     *         fichier et END s'il n'y en a pas
+     */
+    private static long[] nextElement(FileChannel channel, long from,
+            long size) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate(PROBE_SIZE);
+        long position = from;
+        while (position < size) {
+            window.clear();
+            while (window.hasRemaining()
+                    && channel.read(window, position + window.position()) >= 0) {
+            }
+            int length = window.position();
+            boolean last = position + length >= size;
+            // le nom et le caractère qui le suit doivent être dans la fenêtre
+            int limit = last ? length : length - 10;
+            for (int i = 0; i < limit; ++i) {
+                if (window.get(i) == '<') {
+                    if (startsElement(window, i + 1, length, "node")) {
+                        return new long[] { position + i, NODE };
+                    }
+                    if (startsElement(window, i + 1, length, "way")
+                            || startsElement(window, i + 1, length, "relation")) {
+                        return new long[] { position + i, OTHER };
+                    }
+                }
+            }
+            if (last) {
+                break;
+            }
+            position += limit;
+        }
+        return new long[] { size, END };
+    }
+
+    private static boolean startsElement(ByteBuffer window, int from, int to,
+            String name) {
+        if (from + name.length() >= to) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); ++i) {
+            if (window.get(from + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        byte next = window.get(from + name.length());
+        return next == ' ' || next == '\t' || next == '\n' || next == '\r'
+                || next == '/' || next == '>';
+    }
+}
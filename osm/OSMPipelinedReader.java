@@ -0,0 +1,332 @@
+package ch.epfl.imhof.osm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Lecteur de fichiers OSM en pipeline : un premier fil lit et décompresse le
+ * fichier dans un anneau de tampons d'octets, un deuxième fil analyse le XML
+ * et regroupe les éléments en lots, et le fil appelant rejoue ces lots vers le
+ * destinataire final. Les étapes communiquent par des files bornées, la
+ * mémoire utilisée est donc limitée quelle que soit la taille du fichier.
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+final class OSMPipelinedReader {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int BUFFER_COUNT = 16;
+    private static final int BATCH_SIZE = 1 << 13;
+    private static final int BATCH_QUEUE_CAPACITY = 8;
+
+    private static final OSMRecordBatch END_OF_BATCHES = new OSMRecordBatch();
+
+    /**
+     * Constructeur par défaut privé et vide car la classe est non instanciable
+     */
+    private OSMPipelinedReader() {
+    }
+
+    /**
+     * lit le fichier OSM de nom donné et transmet ses éléments, dans l'ordre,
+     * au destinataire donné, qui n'est appelé que depuis le fil appelant
+     *
+     * @param fileName
+     *            le nom du fichier
+     * @param unGZip
+     *            vrai si le fichier doit être décompressé avec GZIP
+     * @param sink
+     *            le destinataire des éléments
+     * @throws SAXException
+     *             en cas d'erreur dans le format du XML
+     * @throws IOException
+     *             en cas d'erreur d'entrée/sortie
+     */
+    static void read(String fileName, boolean unGZip, OSMEntitySink sink)
+            throws SAXException, IOException {
+        InputStream input = OSMMapReader.openInput(fileName, unGZip);
+        ChunkRing ring = new ChunkRing();
+        BlockingQueue<OSMRecordBatch> batches = new ArrayBlockingQueue<>(
+                BATCH_QUEUE_CAPACITY);
+        Throwable[] parseFailure = new Throwable[1];
+
+        Thread inflater = new Thread(() -> {
+            try (InputStream i = input) {
+                ring.fill(i);
+            } catch (InterruptedException e) {
+                // la lecture a été abandonnée
+            } catch (IOException e) {
+                ring.fail(e);
+            } catch (Throwable t) {
+                // le fil d'analyse attend la fin du fichier : il faut la lui
+                // signaler quelle que soit l'erreur
+                ring.fail(new IOException("Erreur de décompression", t));
+            }
+        }, "osm-inflate");
+
+        Thread parser = new Thread(() -> {
+            BatchingSink b = new BatchingSink(batches);
+            try {
+                OSMMapReader.parse(ring.inputStream(), b);
+                b.flush();
+            } catch (InterruptedException e) {
+                // la lecture a été abandonnée : la marque de fin ne doit pas
+                // attendre une place dans la file
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                parseFailure[0] = t;
+            } finally {
+                // le fil appelant attend la marque de fin, même si l'analyse
+                // s'est terminée par une erreur (p.ex. OutOfMemoryError)
+                try {
+                    batches.put(END_OF_BATCHES);
+                } catch (InterruptedException e) {
+                    // la lecture a été abandonnée
+                }
+            }
+        }, "osm-parse");
+
+        inflater.setDaemon(true);
+        parser.setDaemon(true);
+        inflater.start();
+        parser.start();
+        try {
+            OSMRecordBatch batch;
+            while ((batch = batches.take()) != END_OF_BATCHES) {
+                batch.replay(sink);
+            }
+            parser.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            parser.interrupt();
+            inflater.interrupt();
+        }
+
+        // la publication par la file garantit la visibilité de l'échec
+        Throwable failure = parseFailure[0];
+        if (failure instanceof SAXException) {
+            throw (SAXException) failure;
+        } else if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw (RuntimeException) failure;
+        }
+    }
+
+    /**
+     * Destinataire qui regroupe les éléments en lots et les transmet à la file
+     * donnée dès qu'ils atteignent une taille suffisante
+     */
+    private static final class BatchingSink implements OSMEntitySink {
+
+        private final BlockingQueue<OSMRecordBatch> batches;
+        private OSMRecordBatch current = new OSMRecordBatch();
+
+        private BatchingSink(BlockingQueue<OSMRecordBatch> batches) {
+            this.batches = batches;
+        }
+
+        /**
+         * transmet le lot en cours à la file, s'il n'est pas vide
+         *
+         * @throws InterruptedException
+         *             si le fil est interrompu pendant l'attente
+         */
+        private void flush() throws InterruptedException {
+            if (!current.isEmpty()) {
+                batches.put(current);
+                current = new OSMRecordBatch();
+            }
+        }
+
+        /**
+         * transmet le lot en cours s'il est plein. Une interruption est
+         * traduite en exception non vérifiée pour interrompre l'analyse.
+         */
+        private void flushIfFull() {
+            if (current.size() >= BATCH_SIZE) {
+                try {
+                    flush();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Lecture abandonnée", e);
+                }
+            }
+        }
+
+        @Override
+        public void node(long id, double longitude, double latitude) {
+            current.node(id, longitude, latitude);
+            flushIfFull();
+        }
+
+        @Override
+        public void startWay(long id) {
+            current.startWay(id);
+        }
+
+        @Override
+        public void wayNode(long ref) {
+            current.wayNode(ref);
+        }
+
+        @Override
+        public void endWay() {
+            current.endWay();
+            flushIfFull();
+        }
+
+        @Override
+        public void startRelation(long id) {
+            current.startRelation(id);
+        }
+
+        @Override
+        public void member(OSMRelation.Member.Type type, long ref, String role) {
+            current.member(type, ref, role);
+        }
+
+        @Override
+        public void endRelation() {
+            current.endRelation();
+            flushIfFull();
+        }
+
+        @Override
+        public void tag(String key, String value) {
+            current.tag(key, value);
+        }
+    }
+
+    /**
+     * Anneau de tampons d'octets partagé entre le fil de décompression, qui
+     * les remplit, et le fil d'analyse, qui les vide puis les rend à l'anneau
+     */
+    private static final class ChunkRing {
+
+        private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(
+                BUFFER_COUNT);
+        private final BlockingQueue<Chunk> full = new ArrayBlockingQueue<>(
+                BUFFER_COUNT + 1);
+
+        private ChunkRing() {
+            for (int i = 0; i < BUFFER_COUNT; ++i) {
+                free.add(new byte[BUFFER_SIZE]);
+            }
+        }
+
+        /**
+         * remplit les tampons libres avec le contenu du flot donné, jusqu'à
+         * sa fin
+         *
+         * @param input
+         *            le flot à lire
+         * @throws IOException
+         *             en cas d'erreur de lecture
+         * @throws InterruptedException
+         *             si le fil est interrompu pendant l'attente
+         */
+        private void fill(InputStream input) throws IOException,
+                InterruptedException {
+            while (true) {
+                byte[] buffer = free.take();
+                int length = 0;
+                int n;
+                while (length < buffer.length
+                        && (n = input.read(buffer, length, buffer.length
+                                - length)) >= 0) {
+                    length += n;
+                }
+                if (length == 0) {
+                    full.put(new Chunk(null, -1, null));
+                    return;
+                }
+                full.put(new Chunk(buffer, length, null));
+            }
+        }
+
+        /**
+         * signale au fil d'analyse que la lecture a échoué
+         *
+         * @param e
+         *            l'erreur survenue
+         */
+        private void fail(IOException e) {
+            full.offer(new Chunk(null, -1, e));
+        }
+
+        /**
+         * @return un flot d'entrée qui lit successivement le contenu des
+         *         tampons remplis
+         */
+        private InputStream inputStream() {
+            return new InputStream() {
+                private Chunk current;
+                private int position;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (len == 0) {
+                        return 0;
+                    }
+                    if (current == null || position == current.length) {
+                        if (current != null) {
+                            if (current.length < 0) {
+                                return -1;
+                            }
+                            free.add(current.buffer);
+                        }
+                        try {
+                            current = full.take();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException();
+                        }
+                        position = 0;
+                        if (current.failure != null) {
+                            throw current.failure;
+                        } else if (current.length < 0) {
+                            return -1;
+                        }
+                    }
+                    int n = Math.min(len, current.length - position);
+                    System.arraycopy(current.buffer, position, b, off, n);
+                    position += n;
+                    return n;
+                }
+            };
+        }
+    }
+
+    /**
+     * Tampon rempli, ou marque de fin (longueur négative) éventuellement
+     * accompagnée de l'erreur qui l'a provoquée
+     */
+    private static final class Chunk {
+        private final byte[] buffer;
+        private final int length;
+        private final IOException failure;
+
+        private Chunk(byte[] buffer, int length, IOException failure) {
+            this.buffer = buffer;
+            this.length = length;
+            this.failure = failure;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package ch.epfl.imhof.osm;
+
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ch.epfl.imhof.geometry.Point;
+import ch.epfl.imhof.projection.Projection;
+
+/**
+ * Projection des nœuds d'une carte OSM, calculée une seule fois par nœud
+ * avant la conversion en carte géométrique. Les nœuds étant stockés dans des
+ * tables (OSMNodeTable) où chaque identifiant a son entrée, seules les
+ * entrées utilisées par les chemins de la carte et par les chemins membres
+ * de ses relations sont projetées, et leurs coordonnées sont rangées dans
+ * un tableau de double par table, dans l'ordre des entrées : x en 2k, y en
+ * 2k + 1 pour la k-ième entrée utilisée. Le tableau a donc la taille de la
+ * partie utilisée de la table et non de la table entière. Les chemins et
+ * les anneaux qui partagent un nœud lisent tous la même projection.
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+final class OSMProjectedNodes {
+
+    // nombre d'entrées projetées par une même tâche en mode parallèle
+    private static final int CHUNK = 4096;
+
+    private final Map<OSMNodeTable, Projected> tables = new IdentityHashMap<>();
+
+    /**
+     * projette les nœuds utilisés par la carte donnée
+     *
+     * @param map
+     *            la carte OSM donnée
+     * @param projection
+     *            la projection à utiliser
+     * @param pool
+     *            le ForkJoinPool sur lequel répartir les projections, ou null
+     *            pour les calculer sur le fil appelant
+     */
+    OSMProjectedNodes(OSMMap map, Projection projection, ForkJoinPool pool) {
+        Map<OSMNodeTable, BitSet> used = new IdentityHashMap<>();
+        for (OSMWay w : map.ways()) {
+            markUsed(used, w);
+        }
+        for (OSMRelation r : map.relations()) {
+            for (OSMRelation.Member m : r.members()) {
+                if (m.type() == OSMRelation.Member.Type.WAY) {
+                    markUsed(used, (OSMWay) m.member());
+                }
+            }
+        }
+        for (Map.Entry<OSMNodeTable, BitSet> e : used.entrySet()) {
+            OSMNodeTable table = e.getKey();
+            Projected projected = new Projected(e.getValue());
+            ProjectAction all = new ProjectAction(table, e.getValue(),
+                    projection, projected, 0, table.size());
+            if (pool == null) {
+                all.compute();
+            } else {
+                pool.invoke(all);
+            }
+            tables.put(table, projected);
+        }
+    }
+
+    /**
+     * @return les coordonnées projetées des premiers nœuds du chemin donné,
+     *         en nombre donné, x en 2i et y en 2i + 1 pour le nœud d'index i
+     */
+    double[] coordinates(OSMWay way, int count) {
+        double[] result = new double[2 * count];
+        copy(way, count, true, result, 0);
+        return result;
+    }
+
+    /**
+     * copie dans le tableau donné, à partir de la position donnée, les
+     * coordonnées projetées des premiers nœuds du chemin donné, en nombre
+     * donné, dans l'ordre du chemin ou dans l'ordre inverse
+     */
+    void copy(OSMWay way, int count, boolean forward, double[] destination,
+            int offset) {
+        Projected projected = tables.get(way.table());
+        double[] xy = projected.xy;
+        for (int i = 0; i < count; ++i) {
+            int k = projected.slot(way.entry(forward ? i : count - 1 - i));
+            destination[offset + 2 * i] = xy[2 * k];
+            destination[offset + 2 * i + 1] = xy[2 * k + 1];
+        }
+    }
+
+    private static void markUsed(Map<OSMNodeTable, BitSet> used, OSMWay way) {
+        BitSet entries = used.get(way.table());
+        if (entries == null) {
+            entries = new BitSet(way.table().size());
+            used.put(way.table(), entries);
+        }
+        for (int i = 0; i < way.nodesCount(); ++i) {
+            entries.set(way.entry(i));
+        }
+    }
+
+    /**
+     * Coordonnées projetées des entrées utilisées d'une table. La position
+     * d'une entrée parmi les entrées utilisées est son rang dans l'ensemble
+     * des entrées utilisées, calculé à partir du nombre d'entrées utilisées
+     * avant chaque mot de 64 bits de cet ensemble.
+     */
+    private static final class Projected {
+        private final long[] words;
+        private final int[] ranks;
+        private final double[] xy;
+
+        private Projected(BitSet used) {
+            words = used.toLongArray();
+            ranks = new int[words.length];
+            int count = 0;
+            for (int w = 0; w < words.length; ++w) {
+                ranks[w] = count;
+                count += Long.bitCount(words[w]);
+            }
+            xy = new double[2 * count];
+        }
+
+        /**
+         * @return le nombre d'entrées utilisées avant l'entrée donnée, qui
+         *         est la position de celle-ci si elle est utilisée
+         */
+        private int slot(int entry) {
+            int w = entry >>> 6;
+            if (w >= words.length) {
+                return xy.length / 2;
+            }
+            return ranks[w] + Long.bitCount(words[w] & ((1L << entry) - 1));
+        }
+    }
+
+    /**
+     * Tâche qui projette les entrées utilisées d'une plage de la table, en se
+     * divisant en deux tant que la plage est grande ; chaque entrée n'est
+     * écrite que par une tâche
+     */
+    private static final class ProjectAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final OSMNodeTable table;
+        private final BitSet used;
+        private final Projection projection;
+        private final Projected projected;
+        private final int from;
+        private final int to;
+
+        private ProjectAction(OSMNodeTable table, BitSet used,
+                Projection projection, Projected projected, int from, int to) {
+            this.table = table;
+            this.used = used;
+            this.projection = projection;
+            this.projected = projected;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK || getPool() == null) {
+                double[] xy = projected.xy;
+                int k = projected.slot(from);
+                for (int e = used.nextSetBit(from); e >= 0 && e < to; e = used
+                        .nextSetBit(e + 1)) {
+                    Point p = table.project(projection, e);
+                    xy[2 * k] = p.x();
+                    xy[2 * k + 1] = p.y();
+                    ++k;
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ProjectAction(table, used, projection,
+                        projected, from, middle), new ProjectAction(table,
+                        used, projection, projected, middle, to));
+            }
+        }
+    }
+}
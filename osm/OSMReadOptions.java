@@ -0,0 +1,304 @@
+package ch.epfl.imhof.osm;
+
+import java.nio.file.Path;
+
+import ch.epfl.imhof.PointGeo;
+
+/**
+ * Options de lecture d'un fichier OSM, passées à OSMMapReader.
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+public final class OSMReadOptions {
+
+    private final PointGeo bottomLeft;
+    private final PointGeo topRight;
+    private final double margin;
+    private final Path nodeStoreDirectory;
+    private final OSMReadStatistics statistics;
+    private final boolean filterTags;
+    private final boolean twoPass;
+    private final Mode mode;
+    private final int threads;
+    private final Format format;
+
+    private OSMReadOptions(Builder b) {
+        this.bottomLeft = b.bottomLeft;
+        this.topRight = b.topRight;
+        this.margin = b.margin;
+        this.nodeStoreDirectory = b.nodeStoreDirectory;
+        this.statistics = b.statistics;
+        this.filterTags = b.filterTags;
+        this.twoPass = b.twoPass;
+        this.mode = b.mode;
+        this.threads = b.threads;
+        this.format = b.format;
+    }
+
+    /**
+     * @return un nouveau rectangle correspondant à la zone à dessiner, ou null
+     *         si toute la carte doit être gardée
+     */
+    OSMBoundingBox boundingBox() {
+        return bottomLeft == null ? null : new OSMBoundingBox(bottomLeft,
+                topRight, margin);
+    }
+
+    /**
+     * @return le répertoire dans lequel stocker la position des nœuds, ou
+     *         null si elles sont gardées dans le tas
+     */
+    Path nodeStoreDirectory() {
+        return nodeStoreDirectory;
+    }
+
+    /**
+     * @return les statistiques à remplir pendant la lecture, ou null
+     */
+    OSMReadStatistics statistics() {
+        return statistics;
+    }
+
+    /**
+     * @return vrai si seuls les attributs utilisés par OSMToGeoTransformer
+     *         doivent être gardés
+     */
+    boolean filterTags() {
+        return filterTags || twoPass;
+    }
+
+    /**
+     * @return vrai si le fichier doit être lu en deux passes
+     */
+    boolean twoPass() {
+        return twoPass;
+    }
+
+    /**
+     * @return la manière d'analyser le fichier
+     */
+    Mode mode() {
+        return mode;
+    }
+
+    /**
+     * @return le nombre de fils d'exécution analysant les nœuds en mode
+     *         PARALLEL
+     */
+    int threads() {
+        return threads;
+    }
+
+    /**
+     * @param fileName
+     *            le nom du fichier à lire
+     * @return le format du fichier : celui choisi par setFormat, sinon celui
+     *         qu'indique l'extension du nom du fichier
+     */
+    Format format(String fileName) {
+        if (format != null) {
+            return format;
+        } else if (fileName.endsWith(".pbf")) {
+            return Format.PBF;
+        } else if (fileName.endsWith(".o5m")) {
+            return Format.O5M;
+        } else {
+            return Format.XML;
+        }
+    }
+
+    /**
+     * Format d'un fichier OSM
+     */
+    public enum Format {
+        /** XML OSM (« .osm »), éventuellement compressé avec gzip */
+        XML,
+        /** PBF (« .osm.pbf », voir OSMPBFReader), qui a sa propre compression */
+        PBF,
+        /** o5m (« .o5m », voir OSMO5MReader), non compressé */
+        O5M
+    }
+
+    /**
+     * Manière d'analyser un fichier XML OSM
+     */
+    enum Mode {
+        /** analyse SAX sur le fil appelant (voir OSMMapReader.parse) */
+        SEQUENTIAL,
+        /** analyse en pipeline sur trois fils (voir OSMPipelinedReader) */
+        PIPELINED,
+        /** analyse octet par octet du fichier projeté en mémoire, non
+         * compressé (voir OSMMappedXMLReader) */
+        MAPPED,
+        /** comme MAPPED, avec la section des nœuds analysée sur plusieurs
+         * fils (voir OSMParallelXMLReader) */
+        PARALLEL
+    }
+
+    /**
+     * Builder imbriqué statiquement servant à construire des options de
+     * lecture
+     */
+    public final static class Builder {
+
+        private PointGeo bottomLeft;
+        private PointGeo topRight;
+        private double margin;
+        private Path nodeStoreDirectory;
+        private OSMReadStatistics statistics;
+        private boolean filterTags;
+        private boolean twoPass;
+        private Mode mode = Mode.SEQUENTIAL;
+        private int threads;
+        private Format format;
+
+        /**
+         * Ne garde que les chemins et les relations touchant le rectangle
+         * donné, agrandi de la marge donnée (voir OSMMapReader). Le
+         * rectangle est appliqué une fois le fichier lu : il réduit la carte
+         * gardée, mais pas la mémoire utilisée pendant la lecture, que
+         * réduisent setTwoPass et setNodeStore.
+         *
+         * @param bottomLeft
+         *            le coin bas-gauche du rectangle à dessiner
+         * @param topRight
+         *            le coin haut-droit du rectangle à dessiner
+         * @param margin
+         *            la marge ajoutée de chaque côté du rectangle, en radians
+         * @throws IllegalArgumentException
+         *             si la marge est négative ou si les coins ne sont pas
+         *             dans le bon ordre
+         */
+        public void setBoundingBox(PointGeo bottomLeft, PointGeo topRight,
+                double margin) {
+            new OSMBoundingBox(bottomLeft, topRight, margin);
+            this.bottomLeft = bottomLeft;
+            this.topRight = topRight;
+            this.margin = margin;
+        }
+
+        /**
+         * Stocke la position de tous les nœuds lus dans un fichier temporaire
+         * du répertoire donné, projeté en mémoire hors du tas. Seuls les
+         * nœuds utilisés par des chemins ou des relations sont alors
+         * construits dans le tas. Le fichier est supprimé à la fin de la
+         * lecture. Les coordonnées sont arrondies au 1e-7 degré, la précision
+         * des données OSM.
+         *
+         * @param directory
+         *            le répertoire du fichier temporaire
+         */
+        public void setNodeStore(Path directory) {
+            this.nodeStoreDirectory = directory;
+        }
+
+        /**
+         * Remplit les statistiques données pendant la lecture
+         *
+         * @param statistics
+         *            les statistiques à remplir
+         */
+        public void setStatistics(OSMReadStatistics statistics) {
+            this.statistics = statistics;
+        }
+
+        /**
+         * Ne garde que les attributs dont OSMToGeoTransformer a besoin ; les
+         * autres sont ignorés dès leur lecture. Les chemins n'ayant aucun
+         * attribut dessiné par le convertisseur (p.ex. les contours des
+         * multipolygones) servent encore à construire les relations mais ne
+         * font pas partie de la carte. La carte ainsi obtenue donne la même
+         * carte géométrique que la carte complète.
+         *
+         * @param filterTags
+         *            vrai pour filtrer les attributs
+         */
+        public void setTagFilter(boolean filterTags) {
+            this.filterTags = filterTags;
+        }
+
+        /**
+         * Lit le fichier en deux passes : la première parcourt les chemins et
+         * les relations et note les nœuds utilisés par ceux que
+         * OSMToGeoTransformer dessine, la seconde ne construit que ces
+         * nœuds. La mémoire utilisée dépend alors de la partie dessinée de la
+         * carte et non de la taille du fichier. Une passe supplémentaire sur
+         * les chemins est faite si des relations dessinées utilisent des
+         * chemins qui ne le sont pas. Implique le filtrage des attributs (voir
+         * setTagFilter).
+         *
+         * @param twoPass
+         *            vrai pour lire le fichier en deux passes
+         */
+        public void setTwoPass(boolean twoPass) {
+            this.twoPass = twoPass;
+        }
+
+        /**
+         * Analyse le fichier en pipeline (voir OSMPipelinedReader) : la
+         * décompression, l'analyse du XML et la construction de la carte
+         * sont faites simultanément sur trois fils d'exécution.
+         *
+         * @param pipelined
+         *            vrai pour analyser le fichier en pipeline, faux pour
+         *            l'analyser sur le fil appelant
+         */
+        public void setPipelined(boolean pipelined) {
+            this.mode = pipelined ? Mode.PIPELINED : Mode.SEQUENTIAL;
+        }
+
+        /**
+         * Projette le fichier en mémoire et l'analyse directement octet par
+         * octet (voir OSMMappedXMLReader), sans passer par SAX. Le fichier ne
+         * doit pas être compressé.
+         *
+         * @param mapped
+         *            vrai pour projeter le fichier en mémoire, faux pour
+         *            l'analyser avec SAX sur le fil appelant
+         */
+        public void setMapped(boolean mapped) {
+            this.mode = mapped ? Mode.MAPPED : Mode.SEQUENTIAL;
+        }
+
+        /**
+         * Comme setMapped, mais analyse la section des nœuds sur le nombre
+         * donné de fils d'exécution (voir OSMParallelXMLReader). Le fichier
+         * ne doit pas être compressé.
+         *
+         * @param threads
+         *            le nombre de fils d'exécution analysant les nœuds
+         * @throws IllegalArgumentException
+         *             si le nombre de fils d'exécution n'est pas positif
+         */
+        public void setParallel(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException(
+                        "Le nombre de fils d'exécution doit être positif");
+            }
+            this.mode = Mode.PARALLEL;
+            this.threads = threads;
+        }
+
+        /**
+         * Choisit le format du fichier à lire ; par défaut, il est déduit de
+         * l'extension du nom du fichier (« .pbf » pour PBF, « .o5m » pour
+         * o5m, XML sinon). Le
+         * mode d'analyse (p.ex. setPipelined) ne s'applique qu'au format XML.
+         *
+         * @param format
+         *            le format du fichier, ou null pour le déduire du nom du
+         *            fichier
+         */
+        public void setFormat(Format format) {
+            this.format = format;
+        }
+
+        /**
+         * @return des options de lecture immuables
+         */
+        public OSMReadOptions build() {
+            return new OSMReadOptions(this);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package ch.epfl.imhof.osm;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import ch.epfl.imhof.osm.OSMEntity.Rejection;
+
+/**
+ * Statistiques d'une lecture de fichier OSM : nombre d'entités lues, écartées
+ * (par raison) et gardées, et mémoire utilisée à la fin de la lecture. Une instance est
+ * remplie par OSMMapReader lorsqu'elle est passée dans les options de
+ * lecture.
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+public final class OSMReadStatistics {
+
+    private long nodesRead;
+    private long waysRead;
+    private long relationsRead;
+    private long waysKept;
+    private long relationsKept;
+    private long heapBytes = -1;
+    private long residentBytes = -1;
+    private long nodeStoreBytes;
+    private final long[] rejected = new long[Rejection.values().length];
+
+    /**
+     * @return le nombre de nœuds lus dans le fichier
+     */
+    public long nodesRead() {
+        return nodesRead;
+    }
+
+    /**
+     * @return le nombre de chemins lus dans le fichier
+     */
+    public long waysRead() {
+        return waysRead;
+    }
+
+    /**
+     * @return le nombre de relations lues dans le fichier
+     */
+    public long relationsRead() {
+        return relationsRead;
+    }
+
+    /**
+     * @return le nombre de chemins de la carte construite
+     */
+    public long waysKept() {
+        return waysKept;
+    }
+
+    /**
+     * @return le nombre de relations de la carte construite
+     */
+    public long relationsKept() {
+        return relationsKept;
+    }
+
+    /**
+     * @param reason
+     *            la raison de rejet
+     * @return le nombre de nœuds, chemins et relations lus mais écartés pour
+     *         la raison donnée (les chemins et relations écartés parce qu'ils
+     *         sont hors du rectangle à dessiner ou non dessinés ne sont pas
+     *         comptés)
+     */
+    public long rejections(Rejection reason) {
+        return rejected[reason.ordinal()];
+    }
+
+    /**
+     * @return la mémoire utilisée dans le tas à la fin de la lecture, en
+     *         octets
+     */
+    public long heapBytes() {
+        return heapBytes;
+    }
+
+    /**
+     * @return la mémoire résidente du processus à la fin de la lecture, en
+     *         octets, ou -1 si le système ne permet pas de la connaître
+     */
+    public long residentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * @return la place occupée par la table des nœuds hors du tas, en
+     *         octets (pages écrites du fichier creux, et non taille projetée
+     *         en mémoire), ou 0 si elle n'a pas été utilisée
+     */
+    public long nodeStoreBytes() {
+        return nodeStoreBytes;
+    }
+
+    void nodeRead() {
+        ++nodesRead;
+    }
+
+    void wayRead() {
+        ++waysRead;
+    }
+
+    void relationRead() {
+        ++relationsRead;
+    }
+
+    void rejected(Rejection reason) {
+        ++rejected[reason.ordinal()];
+    }
+
+    /**
+     * enregistre la taille de la carte construite et la mémoire utilisée
+     *
+     * @param map
+     *            la carte construite
+     * @param nodeStore
+     *            la table des nœuds hors du tas, ou null
+     */
+    void finish(OSMMap map, OSMMappedNodeStore nodeStore) {
+        waysKept = map.ways().size();
+        relationsKept = map.relations().size();
+        Runtime r = Runtime.getRuntime();
+        heapBytes = r.totalMemory() - r.freeMemory();
+        nodeStoreBytes = nodeStore == null ? 0 : nodeStore.usedBytes();
+        residentBytes = readResidentBytes();
+    }
+
+    /**
+     * @return la mémoire résidente du processus lue dans /proc, ou -1 si elle
+     *         n'est pas disponible
+     */
+    private static long readResidentBytes() {
+        try {
+            for (String line : Files.readAllLines(
+                    Paths.get("/proc/self/status"), StandardCharsets.US_ASCII)) {
+                if (line.startsWith("VmRSS:")) {
+                    String kB = line.substring(6).trim().split("\\s+")[0];
+                    return Long.parseLong(kB) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("nœuds lus : %d, chemins lus/gardés : %d/%d, "
+                + "relations lues/gardées : %d/%d, "
+                + "écartés (incomplets/trop courts/position invalide) : "
+                + "%d/%d/%d, tas : %d Mo, "
+                + "mémoire résidente : %d Mo, table des nœuds : %d Ko",
+                nodesRead, waysRead, waysKept, relationsRead, relationsKept,
+                rejections(Rejection.INCOMPLETE),
+                rejections(Rejection.TOO_FEW_NODES),
+                rejections(Rejection.INVALID_POSITION),
+                heapBytes >> 20, residentBytes >> 20, nodeStoreBytes >> 10);
+    }
+}
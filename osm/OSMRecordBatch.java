@@ -0,0 +1,187 @@
+package ch.epfl.imhof.osm;
+
+import java.util.Arrays;
+
+import ch.epfl.imhof.osm.OSMRelation.Member.Type;
+
+/**
+ * Lot d'éléments OSM enregistrés dans l'ordre de leur réception, sous forme de
+ * tableaux de types primitifs, afin d'être rejoués plus tard (p.ex. sur un
+ * autre fil d'exécution) vers un autre destinataire.
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+final class OSMRecordBatch implements OSMEntitySink {
+
+    private static final byte NODE = 0;
+    private static final byte START_WAY = 1;
+    private static final byte WAY_NODE = 2;
+    private static final byte END_WAY = 3;
+    private static final byte START_RELATION = 4;
+    private static final byte MEMBER_NODE = 5;
+    private static final byte MEMBER_WAY = 6;
+    private static final byte MEMBER_RELATION = 7;
+    private static final byte END_RELATION = 8;
+    private static final byte TAG = 9;
+
+    private byte[] ops = new byte[256];
+    private long[] longs = new long[256];
+    private double[] doubles = new double[64];
+    private String[] strings = new String[64];
+    private int opCount;
+    private int longCount;
+    private int doubleCount;
+    private int stringCount;
+
+    /**
+     * @return le nombre d'éléments enregistrés dans le lot
+     */
+    public int size() {
+        return opCount;
+    }
+
+    /**
+     * @return vrai si et seulement si aucun élément n'a été enregistré
+     */
+    public boolean isEmpty() {
+        return opCount == 0;
+    }
+
+    /**
+     * Rejoue, dans l'ordre, tous les éléments enregistrés vers le destinataire
+     * donné
+     *
+     * @param sink
+     *            le destinataire des éléments
+     */
+    public void replay(OSMEntitySink sink) {
+        int l = 0;
+        int d = 0;
+        int s = 0;
+        for (int i = 0; i < opCount; ++i) {
+            switch (ops[i]) {
+            case NODE:
+                sink.node(longs[l++], doubles[d], doubles[d + 1]);
+                d += 2;
+                break;
+            case START_WAY:
+                sink.startWay(longs[l++]);
+                break;
+            case WAY_NODE:
+                sink.wayNode(longs[l++]);
+                break;
+            case END_WAY:
+                sink.endWay();
+                break;
+            case START_RELATION:
+                sink.startRelation(longs[l++]);
+                break;
+            case MEMBER_NODE:
+                sink.member(Type.NODE, longs[l++], strings[s++]);
+                break;
+            case MEMBER_WAY:
+                sink.member(Type.WAY, longs[l++], strings[s++]);
+                break;
+            case MEMBER_RELATION:
+                sink.member(Type.RELATION, longs[l++], strings[s++]);
+                break;
+            case END_RELATION:
+                sink.endRelation();
+                break;
+            default:
+                sink.tag(strings[s], strings[s + 1]);
+                s += 2;
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void node(long id, double longitude, double latitude) {
+        addOp(NODE);
+        addLong(id);
+        if (doubleCount + 2 > doubles.length) {
+            doubles = Arrays.copyOf(doubles, doubles.length * 2);
+        }
+        doubles[doubleCount++] = longitude;
+        doubles[doubleCount++] = latitude;
+    }
+
+    @Override
+    public void startWay(long id) {
+        addOp(START_WAY);
+        addLong(id);
+    }
+
+    @Override
+    public void wayNode(long ref) {
+        addOp(WAY_NODE);
+        addLong(ref);
+    }
+
+    @Override
+    public void endWay() {
+        addOp(END_WAY);
+    }
+
+    @Override
+    public void startRelation(long id) {
+        addOp(START_RELATION);
+        addLong(id);
+    }
+
+    @Override
+    public void member(Type type, long ref, String role) {
+        if (type == null) {
+            // les membres de type inconnu sont ignorés par les destinataires
+            return;
+        }
+        switch (type) {
+        case NODE:
+            addOp(MEMBER_NODE);
+            break;
+        case WAY:
+            addOp(MEMBER_WAY);
+            break;
+        default:
+            addOp(MEMBER_RELATION);
+            break;
+        }
+        addLong(ref);
+        addString(role);
+    }
+
+    @Override
+    public void endRelation() {
+        addOp(END_RELATION);
+    }
+
+    @Override
+    public void tag(String key, String value) {
+        addOp(TAG);
+        addString(key);
+        addString(value);
+    }
+
+    private void addOp(byte op) {
+        if (opCount == ops.length) {
+            ops = Arrays.copyOf(ops, ops.length * 2);
+        }
+        ops[opCount++] = op;
+    }
+
+    private void addLong(long value) {
+        if (longCount == longs.length) {
+            longs = Arrays.copyOf(longs, longs.length * 2);
+        }
+        longs[longCount++] = value;
+    }
+
+    private void addString(String value) {
+        if (stringCount == strings.length) {
+            strings = Arrays.copyOf(strings, strings.length * 2);
+        }
+        strings[stringCount++] = value;
+    }
+}
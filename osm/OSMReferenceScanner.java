@@ -0,0 +1,232 @@
+package ch.epfl.imhof.osm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ch.epfl.imhof.osm.OSMRelation.Member.Type;
+
+/**
+ * Première passe de la lecture en deux passes : parcourt les chemins et les
+ * relations d'un fichier OSM sans construire d'entité, et détermine les
+ * nœuds dont ont besoin les chemins et les relations que
+ * OSMToGeoTransformer dessine. Un chemin est dessiné s'il a l'une des clés
+ * OSMToGeoTransformer.OUTPUT_KEYS, une relation si c'est un multipolygone
+ * ayant l'une des clés OSMToGeoTransformer.POLYGON_KEYS ; les membres d'une
+ * relation dessinée doivent être lus en entier, faute de quoi elle serait
+ * incomplète.
+ *
+ * Les nœuds des chemins qui ne sont utilisés que par des relations ne sont
+ * connus qu'une fois les relations lues : ils sont trouvés par une passe
+ * supplémentaire sur les chemins, faite seulement si nécessaire (voir
+ * needsWayScan).
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+final class OSMReferenceScanner implements OSMEntitySink {
+
+    private final OSMIdSet neededNodes = new OSMIdSet();
+    private final OSMIdSet drawnWays = new OSMIdSet();
+    private final OSMIdSet memberWays = new OSMIdSet();
+
+    // membres de toutes les relations lues : identifiant * 4 + type
+    private final OSMIdIndex relationIds = new OSMIdIndex();
+    private final List<long[]> relationMembers = new ArrayList<>();
+    private final OSMIdSet drawnRelations = new OSMIdSet();
+
+    private long[] refs = new long[64];
+    private int refCount;
+    private long currentId;
+    private boolean inWay;
+    private boolean inRelation;
+    private boolean drawn;
+    private boolean multipolygon;
+
+    private boolean resolved;
+
+    @Override
+    public void node(long id, double longitude, double latitude) {
+        inWay = inRelation = false;
+    }
+
+    @Override
+    public void startWay(long id) {
+        start(id);
+        inWay = true;
+    }
+
+    @Override
+    public void wayNode(long ref) {
+        push(ref);
+    }
+
+    @Override
+    public void endWay() {
+        if (drawn) {
+            drawnWays.add(currentId);
+            for (int i = 0; i < refCount; ++i) {
+                neededNodes.add(refs[i]);
+            }
+        }
+        inWay = false;
+    }
+
+    @Override
+    public void startRelation(long id) {
+        start(id);
+        inRelation = true;
+    }
+
+    @Override
+    public void member(Type type, long ref, String role) {
+        if (type != null) {
+            push(ref * 4 + type.ordinal());
+        }
+    }
+
+    @Override
+    public void endRelation() {
+        int i = relationIds.add(currentId);
+        long[] members = Arrays.copyOf(refs, refCount);
+        if (i == relationMembers.size()) {
+            relationMembers.add(members);
+        } else {
+            relationMembers.set(i, members);
+        }
+        if (drawn && multipolygon) {
+            drawnRelations.add(currentId);
+        }
+        inRelation = false;
+    }
+
+    @Override
+    public void tag(String key, String value) {
+        if (inWay) {
+            drawn |= OSMToGeoTransformer.OUTPUT_KEYS.contains(key);
+        } else if (inRelation) {
+            drawn |= OSMToGeoTransformer.POLYGON_KEYS.contains(key);
+            if (key.equals("type")) {
+                multipolygon = "multipolygon".equals(value);
+            }
+        }
+    }
+
+    /**
+     * termine la première passe : ajoute aux entités nécessaires les membres
+     * des relations dessinées, récursivement
+     *
+     * @return vrai si une relation dessinée utilise un chemin qui n'est pas
+     *         dessiné, dont les nœuds doivent alors être trouvés par une
+     *         passe sur les chemins transmise à wayScanner
+     */
+    boolean needsWayScan() {
+        if (!resolved) {
+            OSMIdSet visited = new OSMIdSet();
+            for (int i = 0; i < relationIds.size(); ++i) {
+                long id = relationIds.idAt(i);
+                if (drawnRelations.contains(id)) {
+                    addMembers(id, visited);
+                }
+            }
+            relationMembers.clear();
+            resolved = true;
+        }
+        return memberWays.size() > 0;
+    }
+
+    /**
+     * @return un destinataire qui, pour chaque chemin utilisé par une
+     *         relation dessinée mais non dessiné lui-même, ajoute ses nœuds
+     *         aux nœuds nécessaires ; il ne tient compte que des chemins
+     */
+    OSMEntitySink wayScanner() {
+        return new OSMEntitySink() {
+            private boolean needed;
+
+            @Override
+            public void node(long id, double longitude, double latitude) {
+            }
+
+            @Override
+            public void startWay(long id) {
+                needed = memberWays.contains(id);
+            }
+
+            @Override
+            public void wayNode(long ref) {
+                if (needed) {
+                    neededNodes.add(ref);
+                }
+            }
+
+            @Override
+            public void endWay() {
+            }
+
+            @Override
+            public void startRelation(long id) {
+            }
+
+            @Override
+            public void member(Type type, long ref, String role) {
+            }
+
+            @Override
+            public void endRelation() {
+            }
+
+            @Override
+            public void tag(String key, String value) {
+            }
+        };
+    }
+
+    /**
+     * @return l'ensemble des nœuds à construire lors de la seconde passe
+     */
+    OSMIdSet neededNodes() {
+        needsWayScan();
+        return neededNodes;
+    }
+
+    private void addMembers(long relationId, OSMIdSet visited) {
+        if (!visited.add(relationId)) {
+            return;
+        }
+        int i = relationIds.indexOf(relationId);
+        if (i < 0) {
+            return;
+        }
+        for (long member : relationMembers.get(i)) {
+            long ref = member >> 2;
+            switch (Type.values()[(int) (member & 3)]) {
+            case NODE:
+                neededNodes.add(ref);
+                break;
+            case WAY:
+                if (!drawnWays.contains(ref)) {
+                    memberWays.add(ref);
+                }
+                break;
+            default:
+                addMembers(ref, visited);
+                break;
+            }
+        }
+    }
+
+    private void start(long id) {
+        currentId = id;
+        refCount = 0;
+        drawn = false;
+        multipolygon = false;
+    }
+
+    private void push(long ref) {
+        if (refCount == refs.length) {
+            refs = Arrays.copyOf(refs, 2 * refCount);
+        }
+        refs[refCount++] = ref;
+    }
+}
@@ -35,10 +35,11 @@ public final class OSMRelation extends OSMEntity {
     }
 
     /**
-     * @return la liste des membres de la relation.
+     * @return la liste non modifiable des membres de la relation, qui n'est
+     *         pas copiée
      */
     public List<Member> members() {
-        return Collections.unmodifiableList(new ArrayList<>(this.members));
+        return this.members;
     }
 
     /**
@@ -140,7 +141,7 @@ public final class OSMRelation extends OSMEntity {
          *             complète
          */
         public OSMRelation build() throws IllegalStateException {
-            if (super.isIncomplete()) {
+            if (rejection() != null) {
                 throw new IllegalStateException();
             } else {
                 Attributes a = super.attributes.build();
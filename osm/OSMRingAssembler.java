@@ -0,0 +1,116 @@
+package ch.epfl.imhof.osm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import ch.epfl.imhof.geometry.ClosedPolyLine;
+
+/**
+ * Assembleur des anneaux d'un multipolygone à partir de ses chemins membres.
+ * Les chemins ne sont reliés que par leurs extrémités : chaque identifiant
+ * d'extrémité est associé, dans un OSMIdIndex, aux (deux) bouts de chemins
+ * qui s'y rejoignent, puis chaque anneau est parcouru chemin par chemin, en
+ * recopiant d'un bloc les coordonnées projetées de chacun, à l'endroit ou à
+ * l'envers. Le coût est donc proportionnel au nombre de chemins (plus la
+ * copie des sommets), et non au nombre de sommets multiplié par celui des
+ * anneaux.
+ *
+ * Pour des anneaux valides, c-à-d des chemins dont chaque extrémité est
+ * partagée par exactement deux bouts de chemins, le résultat est celui du
+ * parcours du graphe des nœuds ; si une extrémité n'est pas partagée par
+ * exactement deux bouts, aucun anneau n'est retourné.
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+final class OSMRingAssembler {
+
+    /**
+     * Constructeur par défaut privé et vide car la classe est non instanciable
+     */
+    private OSMRingAssembler() {
+    }
+
+    /**
+     * assemble les anneaux formés par les chemins donnés
+     *
+     * @param ways
+     *            les chemins donnés
+     * @param projected
+     *            la projection des nœuds des chemins
+     * @return la liste des anneaux, vide si les chemins ne forment pas des
+     *         anneaux
+     */
+    static List<ClosedPolyLine> rings(List<OSMWay> ways,
+            OSMProjectedNodes projected) {
+        // bouts de chemins à chaque extrémité : 2 * chemin + 0 pour le
+        // début, + 1 pour la fin
+        OSMIdIndex endpoints = new OSMIdIndex();
+        int[] ends = new int[4 * ways.size()];
+        int[] counts = new int[2 * ways.size()];
+        for (int w = 0; w < ways.size(); ++w) {
+            OSMWay way = ways.get(w);
+            for (int end = 0; end < 2; ++end) {
+                long id = way.nodeId(end == 0 ? 0 : way.nodesCount() - 1);
+                int e = endpoints.add(id);
+                if (counts[e] == 2) {
+                    return Collections.emptyList();
+                }
+                ends[2 * e + counts[e]++] = 2 * w + end;
+            }
+        }
+        for (int e = 0; e < endpoints.size(); ++e) {
+            if (counts[e] != 2) {
+                return Collections.emptyList();
+            }
+        }
+
+        List<ClosedPolyLine> rings = new ArrayList<>();
+        boolean[] used = new boolean[ways.size()];
+        double[] ring = new double[64];
+        for (int first = 0; first < ways.size(); ++first) {
+            if (used[first]) {
+                continue;
+            }
+            int length = 0;
+            int w = first;
+            boolean forward = true;
+            do {
+                used[w] = true;
+                OSMWay way = ways.get(w);
+                ring = append(ring, length, way, forward, projected);
+                // le dernier sommet est le premier du chemin suivant
+                length += 2 * (way.nodesCount() - 1);
+                int arrival = 2 * w + (forward ? 1 : 0);
+                int e = endpoints.indexOf(way.nodeId(forward ? way
+                        .nodesCount() - 1 : 0));
+                int next = ends[2 * e] == arrival ? ends[2 * e + 1]
+                        : ends[2 * e];
+                w = next >> 1;
+                forward = (next & 1) == 0;
+            } while (w != first);
+            rings.add(new ClosedPolyLine(Arrays.copyOf(ring, length)));
+        }
+        return rings;
+    }
+
+    /**
+     * copie à partir de la position donnée du tableau donné, agrandi si
+     * nécessaire, les coordonnées projetées de tous les sommets du chemin
+     * donné, dans le sens donné
+     *
+     * @return le tableau contenant les coordonnées
+     */
+    private static double[] append(double[] ring, int length, OSMWay way,
+            boolean forward, OSMProjectedNodes projected) {
+        int count = way.nodesCount();
+        if (length + 2 * count > ring.length) {
+            ring = Arrays.copyOf(ring, Math.max(2 * ring.length, length + 2
+                    * count));
+        }
+        projected.copy(way, count, forward, ring, length);
+        return ring;
+    }
+}
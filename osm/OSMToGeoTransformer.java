@@ -2,17 +2,16 @@ package ch.epfl.imhof.osm;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Collections;
 import java.util.Set;
 import java.util.HashSet;
-import java.util.ListIterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntFunction;
 
 import ch.epfl.imhof.osm.OSMRelation.Member;
-import ch.epfl.imhof.osm.OSMRelation.Member.Type;
 import ch.epfl.imhof.geometry.*;
 import ch.epfl.imhof.*;
 import ch.epfl.imhof.projection.*;
@@ -25,6 +24,53 @@ import ch.epfl.imhof.projection.*;
  */
 public final class OSMToGeoTransformer {
 
+    private static final List<String> SURFACE_KEYS = Arrays.asList("aeroway",
+            "amenity", "building", "harbour", "historic", "landuse", "leisure",
+            "man_made", "military", "natural", "office", "place", "power",
+            "public_transport", "shop", "sport", "tourism", "water",
+            "waterway", "wetland");
+    private static final Set<String> POLYLINE_KEYS = Collections
+            .unmodifiableSet(new HashSet<>(Arrays.asList("bridge", "highway",
+                    "layer", "man_made", "railway", "tunnel", "waterway")));
+
+    /**
+     * Clés des attributs gardés pour les polygones : une relation
+     * multipolygone qui n'a aucune de ces clés n'est pas dessinée
+     */
+    static final Set<String> POLYGON_KEYS = Collections
+            .unmodifiableSet(new HashSet<>(Arrays.asList("building",
+                    "landuse", "layer", "leisure", "natural", "waterway")));
+
+    /**
+     * Clés des attributs gardés dans la carte géométrique : un chemin qui n'a
+     * aucune de ces clés n'y apparaît pas (il peut cependant faire partie
+     * d'une relation)
+     */
+    static final Set<String> OUTPUT_KEYS;
+
+    /**
+     * Clés de tous les attributs lus par le convertisseur ; les autres
+     * attributs peuvent être ignorés dès la lecture du fichier OSM
+     */
+    static final Set<String> USED_KEYS;
+
+    static {
+        Set<String> output = new HashSet<>(POLYLINE_KEYS);
+        output.addAll(POLYGON_KEYS);
+        OUTPUT_KEYS = Collections.unmodifiableSet(output);
+
+        Set<String> used = new HashSet<>(output);
+        used.addAll(SURFACE_KEYS);
+        used.add("area");
+        used.add("type");
+        USED_KEYS = Collections.unmodifiableSet(used);
+    }
+
+    // nombre de chemins, resp. de relations, convertis par une même tâche
+    // en mode parallèle
+    private static final int WAY_CHUNK = 512;
+    private static final int RELATION_CHUNK = 8;
+
     private final Projection projection;
 
     /**
@@ -48,93 +94,227 @@ public final class OSMToGeoTransformer {
     public Map transform(OSMMap map) {
         List<Attributed<PolyLine>> polyLines = new ArrayList<>();
         List<Attributed<Polygon>> polygons = new ArrayList<>();
+        OSMProjectedNodes projected = new OSMProjectedNodes(map, projection,
+                null);
+        KeptAttributes kept = new KeptAttributes();
 
-        List<String> surfaceAttribute = Arrays.asList("aeroway", "amenity",
-                "building", "harbour", "historic", "landuse", "leisure",
-                "man_made", "military", "natural", "office", "place", "power",
-                "public_transport", "shop", "sport", "tourism", "water",
-                "waterway", "wetland");
-
-        List<String> polylineAttribute = Arrays.asList("bridge", "highway",
-                "layer", "man_made", "railway", "tunnel", "waterway");
-        Set<String> keysToKeepForPolyLine = new HashSet<String>(
-                polylineAttribute);
+        // WAYS :
+        for (OSMWay way : map.ways()) {
+            transformWay(way, projected, kept, polyLines, polygons);
+        }
 
-        List<String> polygonAttribute = Arrays.asList("building", "landuse",
-                "layer", "leisure", "natural", "waterway");
+        // RELATIONS :
+        for (OSMRelation relation : map.relations()) {
+            transformRelation(relation, projected, kept, polygons);
+        }
+        return new Map(polyLines, polygons);
+    }
 
-        Set<String> keysToKeepForPolygon = new HashSet<String>(polygonAttribute);
+    /**
+     * Convertit une carte OSM en une carte géométrique projetée, comme
+     * transform, mais en répartissant les chemins puis les relations entre
+     * les fils du ForkJoinPool donné. Chaque tâche convertit une plage
+     * contiguë d'entités, et les résultats des plages sont réunis dans
+     * l'ordre : la carte obtenue est identique à celle de transform, dans le
+     * même ordre.
+     * 
+     * @param map
+     *            la carte OSM donnée
+     * @param pool
+     *            le ForkJoinPool exécutant les tâches
+     * @return une carte géométrique
+     */
+    public Map transform(OSMMap map, ForkJoinPool pool) {
+        OSMProjectedNodes projected = new OSMProjectedNodes(map, projection,
+                pool);
+        KeptAttributes kept = new KeptAttributes();
+        List<OSMWay> ways = map.ways();
+        Chunk[] wayChunks = new Chunk[chunkCount(ways.size(), WAY_CHUNK)];
+        pool.invoke(new ChunkAction(wayChunks, 0, wayChunks.length, c -> {
+            Chunk chunk = new Chunk();
+            int to = Math.min(ways.size(), (c + 1) * WAY_CHUNK);
+            for (int i = c * WAY_CHUNK; i < to; ++i) {
+                transformWay(ways.get(i), projected, kept, chunk.polyLines,
+                        chunk.polygons);
+            }
+            return chunk;
+        }));
 
-        // WAYS :
-        for (OSMWay way : map.ways()) {
-            if (way.isClosed()) {
-                boolean polyGon = false;
-                for (String attribute : surfaceAttribute) {
-                    if (way.attributes().contains(attribute)
-                            || way.attributes().get("area", "0").equals("1")
-                            || way.attributes().get("area", "0").equals("yes")
-                            || way.attributes().get("area", "0").equals("true")) {
-                        polyGon = true;
+        List<OSMRelation> relations = map.relations();
+        Chunk[] relationChunks = new Chunk[chunkCount(relations.size(),
+                RELATION_CHUNK)];
+        pool.invoke(new ChunkAction(relationChunks, 0, relationChunks.length,
+                c -> {
+                    Chunk chunk = new Chunk();
+                    int to = Math.min(relations.size(), (c + 1)
+                            * RELATION_CHUNK);
+                    for (int i = c * RELATION_CHUNK; i < to; ++i) {
+                        transformRelation(relations.get(i), projected, kept,
+                                chunk.polygons);
                     }
+                    return chunk;
+                }));
+
+        List<Attributed<PolyLine>> polyLines = new ArrayList<>();
+        List<Attributed<Polygon>> polygons = new ArrayList<>();
+        for (Chunk c : wayChunks) {
+            polyLines.addAll(c.polyLines);
+            polygons.addAll(c.polygons);
+        }
+        for (Chunk c : relationChunks) {
+            polygons.addAll(c.polygons);
+        }
+        return new Map(polyLines, polygons);
+    }
+
+    /**
+     * convertit le chemin donné et ajoute le résultat, s'il a des attributs
+     * gardés, à la liste correspondante
+     */
+    private void transformWay(OSMWay way, OSMProjectedNodes projected,
+            KeptAttributes kept, List<Attributed<PolyLine>> polyLines,
+            List<Attributed<Polygon>> polygons) {
+
+        if (way.isClosed()) {
+            boolean polyGon = false;
+            for (String attribute : SURFACE_KEYS) {
+                if (way.attributes().contains(attribute)
+                        || way.attributes().get("area", "0").equals("1")
+                        || way.attributes().get("area", "0").equals("yes")
+                        || way.attributes().get("area", "0").equals("true")) {
+                    polyGon = true;
                 }
-                if (polyGon) {
-                    // PolyGon
-                    List<Point> listeDePoints = new ArrayList<>();
-                    for (OSMNode node : way.nonRepeatingNodes()) {
-                        listeDePoints.add(projection.project(node.position()));
-                    }
-                    ClosedPolyLine tempClosedPolyLine = new ClosedPolyLine(
-                            listeDePoints);
-                    Polygon tempPolygon = new Polygon(tempClosedPolyLine);
-                    Attributes newAttributesForPG = way.attributes()
-                            .keepOnlyKeys(keysToKeepForPolygon);
-                    if (!newAttributesForPG.isEmpty()) {
-                        polygons.add(new Attributed<Polygon>(tempPolygon,
-                                newAttributesForPG));
-                    }
-                } else {
-                    // ClosedPolyLine
-                    List<Point> listeDePoints = new ArrayList<>();
-                    for (OSMNode node : way.nodes()) {
-                        listeDePoints.add(projection.project(node.position()));
-                    }
-                    ClosedPolyLine tempClosedPolyLine = new ClosedPolyLine(
-                            listeDePoints);
-                    Attributes newAttributesForCPL = way.attributes()
-                            .keepOnlyKeys(keysToKeepForPolyLine);
-                    if (!newAttributesForCPL.isEmpty()) {
-                        polyLines.add(new Attributed<PolyLine>(
-                                tempClosedPolyLine, newAttributesForCPL));
-                    }
+            }
+            if (polyGon) {
+                // PolyGon
+                // le dernier nœud d'un chemin fermé répète le premier
+                ClosedPolyLine tempClosedPolyLine = new ClosedPolyLine(
+                        projected.coordinates(way, way.nodesCount() - 1));
+                Polygon tempPolygon = new Polygon(tempClosedPolyLine);
+                Attributes newAttributesForPG = kept.polygon(way
+                        .attributes());
+                if (!newAttributesForPG.isEmpty()) {
+                    polygons.add(new Attributed<Polygon>(tempPolygon,
+                            newAttributesForPG));
                 }
-            } else if (!way.isClosed()) {
-                // OpenPolyLine
-                List<Point> listeDePoints = new ArrayList<>();
-                for (OSMNode node : way.nodes()) {
-                    listeDePoints.add(projection.project(node.position()));
+            } else {
+                // ClosedPolyLine
+                ClosedPolyLine tempClosedPolyLine = new ClosedPolyLine(
+                        projected.coordinates(way, way.nodesCount()));
+                Attributes newAttributesForCPL = kept.polyLine(way
+                        .attributes());
+                if (!newAttributesForCPL.isEmpty()) {
+                    polyLines.add(new Attributed<PolyLine>(
+                            tempClosedPolyLine, newAttributesForCPL));
                 }
-                OpenPolyLine tempOpenPolyLine = new OpenPolyLine(listeDePoints);
-                Attributes newAttributesForOPL = way.attributes().keepOnlyKeys(
-                        keysToKeepForPolyLine);
-                if (!newAttributesForOPL.isEmpty()) {
-                    polyLines.add(new Attributed<PolyLine>(tempOpenPolyLine,
-                            newAttributesForOPL));
+            }
+        } else if (!way.isClosed()) {
+            // OpenPolyLine
+            OpenPolyLine tempOpenPolyLine = new OpenPolyLine(
+                    projected.coordinates(way, way.nodesCount()));
+            Attributes newAttributesForOPL = kept.polyLine(way
+                    .attributes());
+            if (!newAttributesForOPL.isEmpty()) {
+                polyLines.add(new Attributed<PolyLine>(tempOpenPolyLine,
+                        newAttributesForOPL));
+            }
+        }
+    }
+
+    /**
+     * convertit la relation donnée, si c'est un multipolygone, et ajoute ses
+     * polygones à la liste donnée
+     */
+    private void transformRelation(OSMRelation relation,
+            OSMProjectedNodes projected, KeptAttributes kept,
+            List<Attributed<Polygon>> polygons) {
+        if (relation.attributes().get("type") != null) {
+            if (relation.attributes().get("type").equals("multipolygon")) {
+                for (Attributed<Polygon> tempPolygon : assemblePolygon(
+                        relation, relation.attributes(), projected, kept)) {
+                    polygons.add(tempPolygon);
                 }
             }
         }
+    }
 
-        // RELATIONS :
-        for (OSMRelation relation : map.relations()) {
-            if (relation.attributes().get("type") != null) {
-                if (relation.attributes().get("type").equals("multipolygon")) {
-                    for (Attributed<Polygon> tempPolygon : assemblePolygon(
-                            relation, relation.attributes())) {
-                        polygons.add(tempPolygon);
-                    }
+    private static int chunkCount(int size, int chunkSize) {
+        return (size + chunkSize - 1) / chunkSize;
+    }
+
+    /**
+     * Attributs gardés pour les polylignes et pour les polygones, calculés
+     * une seule fois par table d'attributs. Les tables étant partagées (voir
+     * Attributes), une carte n'en compte que quelques milliers pour des
+     * millions d'entités. Une instance est créée par conversion et partagée
+     * par ses tâches : elle ne garde aucune table au-delà de la conversion.
+     */
+    private static final class KeptAttributes {
+        private final ConcurrentHashMap<Attributes, Attributes> polyLine = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<Attributes, Attributes> polygon = new ConcurrentHashMap<>();
+
+        private Attributes polyLine(Attributes attributes) {
+            return keep(polyLine, attributes, POLYLINE_KEYS);
+        }
+
+        private Attributes polygon(Attributes attributes) {
+            return keep(polygon, attributes, POLYGON_KEYS);
+        }
+
+        private static Attributes keep(
+                ConcurrentHashMap<Attributes, Attributes> results,
+                Attributes attributes, Set<String> keys) {
+            Attributes result = results.get(attributes);
+            if (result == null) {
+                // deux tâches peuvent calculer le même résultat, qui est
+                // partagé par Attributes.Builder
+                result = attributes.keepOnlyKeys(keys);
+                results.put(attributes, result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Résultats de la conversion d'une plage d'entités, dans leur ordre
+     */
+    private static final class Chunk {
+        private final List<Attributed<PolyLine>> polyLines = new ArrayList<>();
+        private final List<Attributed<Polygon>> polygons = new ArrayList<>();
+    }
+
+    /**
+     * Tâche qui calcule les plages d'indices donnés, en se divisant en deux
+     * tant qu'il en reste plus d'une, et range chaque résultat à son indice
+     */
+    private static final class ChunkAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Chunk[] chunks;
+        private final int from;
+        private final int to;
+        private final IntFunction<Chunk> convert;
+
+        private ChunkAction(Chunk[] chunks, int from, int to,
+                IntFunction<Chunk> convert) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+            this.convert = convert;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (from < to) {
+                    chunks[from] = convert.apply(from);
                 }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChunkAction(chunks, from, middle, convert),
+                        new ChunkAction(chunks, middle, to, convert));
             }
         }
-        return new Map(polyLines, polygons);
     }
 
     /**
@@ -146,62 +326,20 @@ public final class OSMToGeoTransformer {
      *            la relation donnée
      * @param role
      *            le role de la relation donnée
+     * @param projected
+     *            la projection des nœuds de la carte
      * @return une liste contenant l'ensemble des anneaux de la relation donnée
      */
-    private List<ClosedPolyLine> ringsForRole(OSMRelation relation, String role) {
-        List<ClosedPolyLine> tempRings = new ArrayList<>();
-        Graph.Builder<OSMNode> b = new Graph.Builder<OSMNode>();
+    private List<ClosedPolyLine> ringsForRole(OSMRelation relation, String role,
+            OSMProjectedNodes projected) {
+        List<OSMWay> ways = new ArrayList<>();
         for (OSMRelation.Member r : relation.members()) {
             if (r.role().equals(role) && r.type() == Member.Type.WAY)
             {
-                OSMWay way = (OSMWay) r.member();
-                OSMNode precedentNode = way.firstNode();
-                b.addNode(precedentNode);
-                int i = 0;
-                for(OSMNode n : way.nodes())
-                {
-                    if(i!=0){
-                        b.addNode(n);
-                        b.addEdge(n, precedentNode);
-                        precedentNode = n;
-                    }
-                    ++i;
-                }
-            }
-        }
-        
-        Graph<OSMNode> graph = b.build();
-        List<OSMNode> nodes = new ArrayList<>(graph.nodes());
-       for(OSMNode n : nodes)
-        {
-            if(graph.neighborsOf(n).size() != 2)
-            {
-                return new ArrayList<ClosedPolyLine>();
+                ways.add((OSMWay) r.member());
             }
         }
-
-        while(!nodes.isEmpty())
-        {
-            ClosedPolyLine.Builder cbp = new ClosedPolyLine.Builder();
-                OSMNode oldNode = nodes.get(0);
-                OSMNode firstNode = oldNode;
-                List<OSMNode> tempNeighbor = new ArrayList<>();
-                tempNeighbor.addAll(graph.neighborsOf(oldNode));
-                nodes.remove(firstNode);
-                cbp.addPoint(projection.project(oldNode.position()));
-                OSMNode newNode;
-                do {
-                    newNode = tempNeighbor.get(0);
-                    cbp.addPoint(projection.project(newNode.position()));
-                    tempNeighbor = new ArrayList<>(graph.neighborsOf(newNode));
-                    tempNeighbor.remove(oldNode);
-                    nodes.remove(newNode);
-                    oldNode = newNode;
-                } while (!tempNeighbor.contains(firstNode));
-            ClosedPolyLine polyLineToAdd = cbp.buildClosed();
-            tempRings.add(polyLineToAdd);
-        }
-        return tempRings;
+        return OSMRingAssembler.rings(ways, projected);
     }
 
     /**
@@ -212,73 +350,33 @@ public final class OSMToGeoTransformer {
      *            la relation donnée
      * @param attributes
      *            les attributs donnés
+     * @param projected
+     *            la projection des nœuds de la carte
+     * @param kept
+     *            les attributs gardés de la conversion en cours
      * @return une liste de polygones attribués de la relation donnée
      */
     private List<Attributed<Polygon>> assemblePolygon(OSMRelation relation,
-            Attributes attributes) {
+            Attributes attributes, OSMProjectedNodes projected,
+            KeptAttributes kept) {
         // Tri des attributs
-        List<String> polygonAttribute = Arrays.asList("building", "landuse",
-                "layer", "leisure", "natural", "waterway");
-        Set<String> keysToKeepForPolygon = new HashSet<String>(polygonAttribute);
-        Attributes newAttributes = attributes
-                .keepOnlyKeys(keysToKeepForPolygon);
+        Attributes newAttributes = kept.polygon(attributes);
 
         // Création des polygons
         List<Attributed<Polygon>> listOfPolygons = new ArrayList<>();
+        if (newAttributes.isEmpty()) {
+            // aucun polygone ne serait gardé
+            return listOfPolygons;
+        }
         List<ClosedPolyLine> listOfInnerClosedPolylines = ringsForRole(
-                relation, "inner");
+                relation, "inner", projected);
         List<ClosedPolyLine> listOfOuterClosedPolylines = ringsForRole(
-                relation, "outer");
+                relation, "outer", projected);
 
-        List<ClosedPolyLine> sortedListOfInnerClosedPolylines = new ArrayList<>();
-        List<ClosedPolyLine> sortedListOfOuterClosedPolylines = new ArrayList<>();
-
-        for (ClosedPolyLine outerPL : listOfOuterClosedPolylines) {
-            sortedListOfOuterClosedPolylines.add(outerPL);
-        }
-        for (ClosedPolyLine innerPL : listOfInnerClosedPolylines) {
-            sortedListOfInnerClosedPolylines.add(innerPL);
-        }
-
-        Collections.sort(sortedListOfInnerClosedPolylines,
-                new Comparator<ClosedPolyLine>() {
-                    @Override
-                    public int compare(ClosedPolyLine cp1, ClosedPolyLine cp2) {
-                        return Double.compare(cp1.area(), cp2.area());
-                    }
-                });
-        Collections.sort(sortedListOfOuterClosedPolylines,
-                new Comparator<ClosedPolyLine>() {
-                    @Override
-                    public int compare(ClosedPolyLine cp1, ClosedPolyLine cp2) {
-                        return Double.compare(cp1.area(), cp2.area());
-                    }
-                });
-
-        List<ClosedPolyLine> addedHoles = new ArrayList<>();
-
-        for (ClosedPolyLine outerPL : sortedListOfOuterClosedPolylines) {
-            Polygon tempPolygon;
-            List<ClosedPolyLine> listOfHoles = new ArrayList<>();
-            for (ClosedPolyLine innerPL : sortedListOfInnerClosedPolylines) {
-                if (innerPL.area() <= outerPL.area()
-                        && !addedHoles.contains(innerPL)
-                        && outerPL.containsPoint(innerPL.points().get(0))) {
-                    listOfHoles.add(innerPL);
-                    addedHoles.add(innerPL);
-                }
-            }
-            if (listOfHoles.isEmpty()) {
-                tempPolygon = new Polygon(outerPL);
-            } else if (!listOfHoles.isEmpty()) {
-                tempPolygon = new Polygon(outerPL, listOfHoles);
-            } else {
-                tempPolygon = null;
-            }
-            if (!newAttributes.isEmpty() && tempPolygon != null) {
-                listOfPolygons.add(new Attributed<Polygon>(tempPolygon,
-                        newAttributes));
-            }
+        for (Polygon tempPolygon : OSMHoleAssigner.polygons(
+                listOfOuterClosedPolylines, listOfInnerClosedPolylines)) {
+            listOfPolygons.add(new Attributed<Polygon>(tempPolygon,
+                    newAttributes));
         }
         return listOfPolygons;
     }
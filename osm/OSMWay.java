@@ -4,20 +4,27 @@ import java.util.*;
 import ch.epfl.imhof.*;
 
 /**
- * Représente un chemin OSM
- * 
+ * Représente un chemin OSM. Les noeuds du chemin ne sont pas gardés sous
+ * forme d'objets : le chemin référence, par un tableau d'entiers, les
+ * entrées d'une table de noeuds (celle de la carte lue, en général), et les
+ * OSMNode ne sont construits qu'à la demande : chaque appel de nodeAt,
+ * firstNode, lastNode ou de la méthode get de nodes() retourne un nouvel
+ * objet, égal (au sens de equals) mais pas identique aux précédents.
+ *
  * @author Cédric Viaccoz (250396)
  * @author Matteo Giorla (246524)
  */
 
 public final class OSMWay extends OSMEntity {
 
-    private final List<OSMNode> nodes;
+    private final OSMNodeTable table;
+    private final int[] nodes;
+    private final List<OSMNode> nodesView;
 
     /**
      * Construit une entité OSM dotée de l'identifiant unique, de sa liste de
      * noeud et des attributs donnés
-     * 
+     *
      * @param id
      *            L'identificateur du chemin
      * @param nodes
@@ -30,32 +37,129 @@ public final class OSMWay extends OSMEntity {
      */
     public OSMWay(long id, List<OSMNode> nodes, Attributes attributes)
             throws IllegalArgumentException {
+        this(id, new OSMNodeTable(), nodes, attributes);
+    }
+
+    private OSMWay(long id, OSMNodeTable table, List<OSMNode> nodes,
+            Attributes attributes) {
+        this(id, table, append(table, nodes), attributes);
+    }
+
+    /**
+     * Construit un chemin dont les noeuds sont les entrées données de la
+     * table donnée, qui ne doivent plus être modifiées
+     *
+     * @param id
+     *            L'identificateur du chemin
+     * @param table
+     *            la table contenant les noeuds du chemin
+     * @param nodes
+     *            les numéros des entrées des noeuds, dans l'ordre du chemin ;
+     *            le tableau n'est pas copié
+     * @param attributes
+     *            attributs attaché au chemin
+     * @throws IllegalArgumentException
+     *             Lorsque le chemin compte moins de deux noeuds
+     */
+    OSMWay(long id, OSMNodeTable table, int[] nodes, Attributes attributes)
+            throws IllegalArgumentException {
         super(id, attributes);
-        if (nodes.size() < 2) {
+        if (nodes.length < 2) {
             throw new IllegalArgumentException("La liste d'OSMNode est trop petite pour constituer une OSMWay");
-        } else {
-            this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
         }
+        this.table = table;
+        this.nodes = nodes;
+        this.nodesView = new NodeList();
+    }
 
+    private static int[] append(OSMNodeTable table, List<OSMNode> nodes) {
+        int[] entries = new int[nodes.size()];
+        for (int i = 0; i < entries.length; ++i) {
+            entries[i] = table.append(nodes.get(i));
+        }
+        return entries;
     }
 
     /**
      * permet de connaître le nombre de noeud constituant le chemin
-     * 
+     *
      * @return le nombre de noeud dans le chemin OSM
      */
     public int nodesCount() {
-        return this.nodes.size();
+        return this.nodes.length;
+    }
+
+    /**
+     * renvoie le noeud d'index donné du chemin, sans construire de liste
+     *
+     * @param index
+     *            l'index du noeud, entre 0 (inclus) et nodesCount() (exclus)
+     * @return le noeud d'index donné
+     * @throws IndexOutOfBoundsException
+     *             si l'index est invalide
+     */
+    public OSMNode nodeAt(int index) {
+        return table.node(nodes[index]);
+    }
+
+    /**
+     * @return l'identifiant du noeud d'index donné
+     */
+    long nodeId(int index) {
+        return table.id(nodes[index]);
+    }
+
+    /**
+     * @return la longitude, en radians, du noeud d'index donné
+     */
+    double longitude(int index) {
+        return table.longitude(nodes[index]);
+    }
+
+    /**
+     * @return la latitude, en radians, du noeud d'index donné
+     */
+    double latitude(int index) {
+        return table.latitude(nodes[index]);
+    }
+
+    /**
+     * renumérote en place les entrées des noeuds du chemin, après le
+     * compactage de sa table
+     *
+     * @param entries
+     *            le nouveau numéro de chaque ancienne entrée de la table (voir
+     *            OSMNodeTable.compact)
+     */
+    void renumber(int[] entries) {
+        for (int i = 0; i < nodes.length; ++i) {
+            nodes[i] = entries[nodes[i]];
+        }
+    }
+
+    /**
+     * @return la table contenant les noeuds du chemin
+     */
+    OSMNodeTable table() {
+        return table;
+    }
+
+    /**
+     * @return le numéro de l'entrée, dans la table du chemin, du noeud
+     *         d'index donné
+     */
+    int entry(int index) {
+        return nodes[index];
     }
 
     /**
      * renvoie une vue sur la liste de noeud du chemin.
-     * 
+     *
      * @return une version non modifiable (et immuable même) de la liste de
-     *         noeuds constituant le chemin.
+     *         noeuds constituant le chemin, qui n'est pas copiée
      */
     public List<OSMNode> nodes() {
-        return Collections.unmodifiableList(new ArrayList<>(nodes));
+        return nodesView;
     }
 
     /**
@@ -64,44 +168,54 @@ public final class OSMWay extends OSMEntity {
      */
     public List<OSMNode> nonRepeatingNodes() {
         if (this.isClosed()) {
-            int lastBound = nodes().size();
-            return nodes().subList(0, lastBound - 1);
+            return nodesView.subList(0, nodes.length - 1);
         } else {
-            return nodes();
+            return nodesView;
         }
     }
 
     /**
      * retourne vrai ssi le chemin est fermé, c'est à dire que son dernier noeud
      * est égal au premier.
-     * 
+     *
      * @return un boolean de type true si le premier élément est égal au dernier
      */
     public boolean isClosed() {
-        if (firstNode().equals(lastNode())) {
-            return true;
-        } else {
-            return false;
-        }
+        return nodeId(0) == nodeId(nodes.length - 1);
     }
 
     /**
      * renvoie le premier noeud du chemin
-     * 
+     *
      * @return le premier OSMNode de la liste nodes
      */
     public OSMNode firstNode() {
-        return nodes.get(0);
+        return nodeAt(0);
     }
 
     /**
      * renvoie le dernier noeud du chemin
-     * 
+     *
      * @return le dernier OSMNode de la liste nodes
      */
     public OSMNode lastNode() {
-        int lastItem = nodes.size() - 1;
-        return nodes.get(lastItem);
+        return nodeAt(nodes.length - 1);
+    }
+
+    /**
+     * Vue non modifiable des noeuds du chemin
+     */
+    private final class NodeList extends AbstractList<OSMNode> implements
+            RandomAccess {
+        @Override
+        public OSMNode get(int index) {
+            return nodeAt(index);
+        }
+
+        @Override
+        public int size() {
+            return nodes.length;
+        }
     }
 
     /**
@@ -109,12 +223,14 @@ public final class OSMWay extends OSMEntity {
      *
      */
     public static class Builder extends OSMEntity.Builder {
-        private List<OSMNode> nodes = new ArrayList<>();
+        private OSMNodeTable table;
+        private int[] nodes = new int[8];
+        private int nodesCount;
 
         /**
          * Constructeur du Builder faisant appel au constructeur de la classe
          * mère.
-         * 
+         *
          * @param id
          *            identificateur du chemin qui sera construit ensuite par le
          *            Builder
@@ -123,46 +239,81 @@ public final class OSMWay extends OSMEntity {
             super(id);
         }
 
+        /**
+         * Construit un bâtisseur dont le chemin référencera des entrées de la
+         * table donnée, p.ex. celle de la carte en cours de construction
+         *
+         * @param id
+         *            identificateur du chemin
+         * @param table
+         *            la table des noeuds
+         */
+        Builder(long id, OSMNodeTable table) {
+            super(id);
+            this.table = table;
+        }
+
         /**
          * méthode ajoutant un noeud à la liste de noeud.
-         * 
+         *
          * @param newNode
          *            Noeud qui va être ajouté à la liste de noeud constituant
          *            le chemin.
          */
         public void addNode(OSMNode newNode) {
-            nodes.add(newNode);
+            if (table == null) {
+                table = new OSMNodeTable();
+            }
+            addNodeAt(table.append(newNode));
+        }
+
+        /**
+         * ajoute au chemin le noeud de l'entrée donnée de la table passée au
+         * constructeur
+         *
+         * @param entry
+         *            le numéro de l'entrée
+         */
+        void addNodeAt(int entry) {
+            if (nodesCount == nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * nodesCount);
+            }
+            nodes[nodesCount++] = entry;
         }
 
         /**
          * Construit le chemin
-         * 
-         * 
+         *
+         *
          * @return un nouveau chemin OSM construit à la base de l'instance de ce
          *         builder.
          * @throws IllegalStateException
          *             lorsque le chemin est incomplet
          */
         public OSMWay build() throws IllegalStateException {
-            if (this.isIncomplete()) {
+            if (rejection() != null) {
                 throw new IllegalStateException();
             } else {
                 Attributes a = super.attributes.build();
-                try {
-                    return new OSMWay(super.id, this.nodes, a);
-                } catch (IllegalArgumentException e) {
-                    throw new IllegalStateException();
-                }
+                return new OSMWay(super.id, table, Arrays.copyOf(nodes,
+                        nodesCount), a);
             }
         }
 
         @Override
         public boolean isIncomplete() {
-            if (this.nodes.isEmpty() || nodes.size()<2 || incomplete) {
-                return true;
+            return rejection() != null;
+        }
+
+        @Override
+        public Rejection rejection() {
+            if (incomplete) {
+                return Rejection.INCOMPLETE;
+            } else if (nodesCount < 2) {
+                return Rejection.TOO_FEW_NODES;
             } else {
-                return false;
+                return null;
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,491 @@
+package ch.epfl.imhof.osm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import ch.epfl.imhof.osm.OSMRelation.Member.Type;
+
+/**
+ * Analyseur de XML OSM qui travaille directement sur les octets d'un tampon.
+ * Il ne reconnaît que les quelques balises et attributs utilisés par OSM et
+ * lit les nombres sans passer par des chaînes de caractères ; seuls les rôles,
+ * clés et valeurs d'attributs sont décodés en chaînes. Les attributs des nœuds,
+ * ignorés lors de la construction de la carte, ne sont pas décodés.
+ *
+ * @author Cédric Viaccoz (250396)
+ * @author Matteo Giorla (246524)
+ */
+final class OSMXMLTokenizer {
+
+    private static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5,
+            1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+            1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private static final byte[] NODE = ascii("node");
+    private static final byte[] WAY = ascii("way");
+    private static final byte[] ND = ascii("nd");
+    private static final byte[] RELATION = ascii("relation");
+    private static final byte[] MEMBER = ascii("member");
+    private static final byte[] TAG = ascii("tag");
+    private static final byte[] ID = ascii("id");
+    private static final byte[] LAT = ascii("lat");
+    private static final byte[] LON = ascii("lon");
+    private static final byte[] REF = ascii("ref");
+    private static final byte[] TYPE = ascii("type");
+    private static final byte[] ROLE = ascii("role");
+    private static final byte[] K = ascii("k");
+    private static final byte[] V = ascii("v");
+
+    private final OSMEntitySink sink;
+    private ByteBuffer buffer;
+    private boolean inNode;
+    private byte[] scratch = new byte[256];
+
+    // bornes [début, fin[ des valeurs des attributs de l'élément en cours
+    private int idStart, idEnd, latStart, latEnd, lonStart, lonEnd, refStart,
+            refEnd, typeStart, typeEnd, roleStart, roleEnd, kStart, kEnd,
+            vStart, vEnd;
+
+    /**
+     * Construit un analyseur qui transmet les éléments lus au destinataire
+     * donné
+     *
+     * @param sink
+     *            le destinataire des éléments
+     */
+    OSMXMLTokenizer(OSMEntitySink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * analyse les éléments du tampon donné compris entre les positions
+     * données. Si la plage ne contient pas la fin du document, l'analyse
+     * s'arrête au début du dernier élément qu'elle ne contient pas en entier.
+     *
+     * @param buffer
+     *            le tampon contenant le XML
+     * @param from
+     *            la position (absolue) du début de la plage
+     * @param to
+     *            la position (absolue) de la fin de la plage, exclue
+     * @param last
+     *            vrai si la plage se termine à la fin du document
+     * @return la position à laquelle l'analyse s'est arrêtée, qui vaut to si
+     *         tous les éléments de la plage ont été analysés
+     * @throws IOException
+     *             si le XML est tronqué ou contient un nombre invalide
+     */
+    int tokenize(ByteBuffer buffer, int from, int to, boolean last)
+            throws IOException {
+        this.buffer = buffer;
+        int i = from;
+        while (true) {
+            while (i < to && buffer.get(i) != '<') {
+                ++i;
+            }
+            if (i >= to) {
+                return to;
+            }
+            int end = elementEnd(i, to);
+            if (end < 0) {
+                if (last) {
+                    throw new IOException("Fichier XML tronqué");
+                }
+                return i;
+            }
+            element(i + 1, end);
+            i = end + 1;
+        }
+    }
+
+    /**
+     * @param start
+     *            la position du caractère '<' ouvrant l'élément
+     * @param to
+     *            la fin de la plage analysée
+     * @return la position du caractère '>' fermant l'élément, ou -1 si
+     *         celui-ci ne se trouve pas dans la plage
+     */
+    private int elementEnd(int start, int to) {
+        int i = start + 1;
+        if (i + 2 < to && buffer.get(i) == '!' && buffer.get(i + 1) == '-'
+                && buffer.get(i + 2) == '-') {
+            // commentaire, terminé par "-->"
+            for (i += 3; i + 2 < to; ++i) {
+                if (buffer.get(i) == '-' && buffer.get(i + 1) == '-'
+                        && buffer.get(i + 2) == '>') {
+                    return i + 2;
+                }
+            }
+            return -1;
+        }
+        byte quote = 0;
+        for (; i < to; ++i) {
+            byte b = buffer.get(i);
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '>') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * analyse l'élément dont le contenu (entre '<' et '>') occupe la plage
+     * donnée
+     *
+     * @param start
+     *            la position suivant le caractère '<'
+     * @param end
+     *            la position du caractère '>'
+     * @throws IOException
+     *             si un nombre est invalide
+     */
+    private void element(int start, int end) throws IOException {
+        byte first = buffer.get(start);
+        if (first == '?' || first == '!') {
+            return;
+        }
+        if (first == '/') {
+            int nameEnd = nameEnd(start + 1, end);
+            if (matches(start + 1, nameEnd, WAY)) {
+                sink.endWay();
+            } else if (matches(start + 1, nameEnd, RELATION)) {
+                sink.endRelation();
+            } else if (matches(start + 1, nameEnd, NODE)) {
+                inNode = false;
+            }
+            return;
+        }
+
+        int nameEnd = nameEnd(start, end);
+        boolean selfClosing = buffer.get(end - 1) == '/';
+        int attributesEnd = selfClosing ? end - 1 : end;
+        if (matches(start, nameEnd, ND)) {
+            attributes(nameEnd, attributesEnd);
+            sink.wayNode(parseLong(refStart, refEnd));
+        } else if (matches(start, nameEnd, TAG)) {
+            if (!inNode) {
+                attributes(nameEnd, attributesEnd);
+                sink.tag(string(kStart, kEnd), string(vStart, vEnd));
+            }
+        } else if (matches(start, nameEnd, NODE)) {
+            attributes(nameEnd, attributesEnd);
+            inNode = !selfClosing;
+            try {
+                long id = parseLong(idStart, idEnd);
+                double lon = parseDouble(lonStart, lonEnd);
+                double lat = parseDouble(latStart, latEnd);
+                sink.node(id, lon, lat);
+            } catch (IOException | NumberFormatException e) {
+                // nœud invalide, ignoré comme par l'analyseur SAX
+            }
+        } else if (matches(start, nameEnd, MEMBER)) {
+            attributes(nameEnd, attributesEnd);
+            sink.member(memberType(), parseLong(refStart, refEnd),
+                    roleStart < 0 ? null : string(roleStart, roleEnd));
+        } else if (matches(start, nameEnd, WAY)) {
+            attributes(nameEnd, attributesEnd);
+            sink.startWay(parseLong(idStart, idEnd));
+            if (selfClosing) {
+                sink.endWay();
+            }
+        } else if (matches(start, nameEnd, RELATION)) {
+            attributes(nameEnd, attributesEnd);
+            sink.startRelation(parseLong(idStart, idEnd));
+            if (selfClosing) {
+                sink.endRelation();
+            }
+        }
+    }
+
+    /**
+     * repère les valeurs des attributs connus de l'élément en cours
+     *
+     * @param from
+     *            la position suivant le nom de l'élément
+     * @param to
+     *            la position de la fin des attributs
+     */
+    private void attributes(int from, int to) {
+        idStart = latStart = lonStart = refStart = typeStart = roleStart = kStart = vStart = -1;
+        int i = from;
+        while (true) {
+            while (i < to && isSpace(buffer.get(i))) {
+                ++i;
+            }
+            if (i >= to) {
+                return;
+            }
+            int nameStart = i;
+            while (i < to && buffer.get(i) != '=' && !isSpace(buffer.get(i))) {
+                ++i;
+            }
+            int nameEnd = i;
+            while (i < to && buffer.get(i) != '"' && buffer.get(i) != '\'') {
+                ++i;
+            }
+            if (i >= to) {
+                return;
+            }
+            byte quote = buffer.get(i);
+            int valueStart = ++i;
+            while (i < to && buffer.get(i) != quote) {
+                ++i;
+            }
+            int valueEnd = i++;
+            switch (nameEnd - nameStart) {
+            case 1:
+                if (matches(nameStart, nameEnd, K)) {
+                    kStart = valueStart;
+                    kEnd = valueEnd;
+                } else if (matches(nameStart, nameEnd, V)) {
+                    vStart = valueStart;
+                    vEnd = valueEnd;
+                }
+                break;
+            case 2:
+                if (matches(nameStart, nameEnd, ID)) {
+                    idStart = valueStart;
+                    idEnd = valueEnd;
+                }
+                break;
+            case 3:
+                if (matches(nameStart, nameEnd, LAT)) {
+                    latStart = valueStart;
+                    latEnd = valueEnd;
+                } else if (matches(nameStart, nameEnd, LON)) {
+                    lonStart = valueStart;
+                    lonEnd = valueEnd;
+                } else if (matches(nameStart, nameEnd, REF)) {
+                    refStart = valueStart;
+                    refEnd = valueEnd;
+                }
+                break;
+            case 4:
+                if (matches(nameStart, nameEnd, TYPE)) {
+                    typeStart = valueStart;
+                    typeEnd = valueEnd;
+                } else if (matches(nameStart, nameEnd, ROLE)) {
+                    roleStart = valueStart;
+                    roleEnd = valueEnd;
+                }
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return le type du membre en cours, ou null s'il est inconnu
+     */
+    private Type memberType() {
+        if (typeStart < 0) {
+            return null;
+        } else if (matches(typeStart, typeEnd, WAY)) {
+            return Type.WAY;
+        } else if (matches(typeStart, typeEnd, NODE)) {
+            return Type.NODE;
+        } else if (matches(typeStart, typeEnd, RELATION)) {
+            return Type.RELATION;
+        } else {
+            return null;
+        }
+    }
+
+    private int nameEnd(int from, int to) {
+        int i = from;
+        while (i < to) {
+            byte b = buffer.get(i);
+            if (isSpace(b) || b == '/') {
+                break;
+            }
+            ++i;
+        }
+        return i;
+    }
+
+    private boolean matches(int from, int to, byte[] name) {
+        if (to - from != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; ++i) {
+            if (buffer.get(from + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * lit un entier décimal signé directement depuis les octets donnés
+     *
+     * @throws IOException
+     *             si l'attribut est absent ou n'est pas un entier valide
+     */
+    private long parseLong(int from, int to) throws IOException {
+        if (from < 0 || from == to) {
+            throw new IOException("Identifiant manquant");
+        }
+        boolean negative = buffer.get(from) == '-';
+        int i = negative ? from + 1 : from;
+        if (i == to || to - i > 18) {
+            return Long.parseLong(ascii(from, to).trim());
+        }
+        long value = 0;
+        for (; i < to; ++i) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IOException("Identifiant invalide : "
+                        + ascii(from, to));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * lit un nombre décimal directement depuis les octets donnés. La mantisse
+     * et le nombre de décimales étant exacts, une seule division donne le même
+     * résultat (correctement arrondi) que Double.parseDouble ; les autres
+     * écritures (exposant, trop de chiffres) lui sont déléguées.
+     *
+     * @throws IOException
+     *             si l'attribut est absent
+     */
+    private double parseDouble(int from, int to) throws IOException {
+        if (from < 0) {
+            throw new IOException("Coordonnée manquante");
+        }
+        boolean negative = from < to && buffer.get(from) == '-';
+        int i = negative ? from + 1 : from;
+        long mantissa = 0;
+        int decimals = -1;
+        int digits = 0;
+        for (; i < to; ++i) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                ++digits;
+                if (decimals >= 0) {
+                    ++decimals;
+                }
+                if (digits > 18) {
+                    break;
+                }
+            } else if (b == '.' && decimals < 0) {
+                decimals = 0;
+            } else {
+                break;
+            }
+        }
+        if (i != to || digits == 0 || mantissa >= MAX_EXACT_MANTISSA
+                || decimals >= POW10.length) {
+            return Double.parseDouble(ascii(from, to));
+        }
+        double value = decimals > 0 ? mantissa / POW10[decimals] : mantissa;
+        return negative ? -value : value;
+    }
+
+    /**
+     * décode la valeur d'attribut donnée en chaîne, en remplaçant les entités
+     * XML et en normalisant les blancs comme le ferait un analyseur XML
+     */
+    private String string(int from, int to) {
+        if (from < 0) {
+            return null;
+        }
+        int length = to - from;
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        boolean plain = true;
+        for (int i = 0; i < length; ++i) {
+            byte b = buffer.get(from + i);
+            scratch[i] = b;
+            if (b == '&' || b == '\n' || b == '\r' || b == '\t') {
+                plain = false;
+            }
+        }
+        String raw = new String(scratch, 0, length, StandardCharsets.UTF_8);
+        return plain ? raw : unescape(raw);
+    }
+
+    private static String unescape(String raw) {
+        StringBuilder sb = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); ++i) {
+            char c = raw.charAt(i);
+            if (c == '&') {
+                int semicolon = raw.indexOf(';', i);
+                if (semicolon < 0) {
+                    sb.append(c);
+                    continue;
+                }
+                String entity = raw.substring(i + 1, semicolon);
+                switch (entity) {
+                case "amp":
+                    sb.append('&');
+                    break;
+                case "lt":
+                    sb.append('<');
+                    break;
+                case "gt":
+                    sb.append('>');
+                    break;
+                case "quot":
+                    sb.append('"');
+                    break;
+                case "apos":
+                    sb.append('\'');
+                    break;
+                default:
+                    if (entity.startsWith("#x")) {
+                        sb.appendCodePoint(Integer.parseInt(
+                                entity.substring(2), 16));
+                    } else if (entity.startsWith("#")) {
+                        sb.appendCodePoint(Integer.parseInt(entity
+                                .substring(1)));
+                    } else {
+                        sb.append(raw, i, semicolon + 1);
+                    }
+                    break;
+                }
+                i = semicolon;
+            } else if (c == '\r') {
+                sb.append(' ');
+                if (i + 1 < raw.length() && raw.charAt(i + 1) == '\n') {
+                    ++i;
+                }
+            } else if (c == '\n' || c == '\t') {
+                sb.append(' ');
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private String ascii(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = buffer.get(from + i);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\n' || b == '\t' || b == '\r';
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
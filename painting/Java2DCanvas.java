@@ -1,7 +1,6 @@
 package ch.epfl.imhof.painting;
 
 import java.awt.image.BufferedImage;
-import java.util.function.Function;
 
 import ch.epfl.imhof.geometry.*;
 
@@ -34,7 +33,8 @@ public class Java2DCanvas implements Canvas {
     private int height;
     private int resolution;
     private ch.epfl.imhof.painting.Color backgroundColor;
-    private Function<Point, Point> coordinateChange;
+    // facteurs (a, b, c, d) du changement de repère (x, y) -> (ax + b, cy + d)
+    private double[] coordinateChange;
     private BufferedImage image;
     private Graphics2D ctx;
 
@@ -62,7 +62,7 @@ public class Java2DCanvas implements Canvas {
         this.height = height;
         this.resolution = resolution;
         this.backgroundColor = color;
-        coordinateChange = Point.alignedCoordinateChange(pBL, new Point(0,
+        coordinateChange = Point.alignedCoordinateChangeFactors(pBL, new Point(0,
                 (height / (double) resolution) * 72), pTR, new Point(
                 (width / (double) resolution) * 72, 0));
         image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
@@ -93,18 +93,7 @@ public class Java2DCanvas implements Canvas {
                     .ordinal(), lineStyle.join().ordinal(), (float) 10.0);
         }
         ctx.setStroke(s);
-        Path2D path = new Path2D.Double();
-        path.moveTo(coordinateChange.apply(polyline.points().get(0)).x(),
-                coordinateChange.apply(polyline.points().get(0)).y());
-        int i=0;
-        for (Point point : polyline.points()) {
-            if(i!=0)
-            {
-                path.lineTo(coordinateChange.apply(point).x(), coordinateChange
-                        .apply(point).y());
-            }
-            ++i;
-        }
+        Path2D path = path(polyline);
         if (polyline.isClosed()) {
             path.closePath();
         }
@@ -121,26 +110,12 @@ public class Java2DCanvas implements Canvas {
     @Override
     public void drawPolygon(Polygon polygon, ch.epfl.imhof.painting.Color color) {
         ctx.setColor(color.toAWTColor());
-        Path2D path = new Path2D.Double();
-        path.moveTo(
-                coordinateChange.apply(polygon.shell().points().get(0)).x(),
-                coordinateChange.apply(polygon.shell().points().get(0)).y());
-        for (Point point : polygon.shell().points()) {
-            path.lineTo(coordinateChange.apply(point).x(), coordinateChange
-                    .apply(point).y());
-        }
+        Path2D path = path(polygon.shell());
         path.closePath();
         Area surface = new Area(path);
         if (!polygon.holes().isEmpty()) {
             for (ClosedPolyLine polyline : polygon.holes()) {
-                Path2D hole = new Path2D.Double();
-                hole.moveTo(coordinateChange.apply(polyline.points().get(0))
-                        .x(), coordinateChange.apply(polyline.points().get(0))
-                        .y());
-                for (Point point : polyline.points()) {
-                    hole.lineTo(coordinateChange.apply(point).x(),
-                            coordinateChange.apply(point).y());
-                }
+                Path2D hole = path(polyline);
                 Area holeToSubtract = new Area(hole);
                 surface.subtract(holeToSubtract);
             }
@@ -148,6 +123,27 @@ public class Java2DCanvas implements Canvas {
         ctx.fill(surface);
     }
 
+    /**
+     * Construit le chemin reliant les sommets de la polyligne donnée, dans le
+     * repère de l'image ; les coordonnées sont lues directement dans la
+     * polyligne, sans créer de points
+     * 
+     * @param polyline
+     *            la polyligne donnée
+     * @return le chemin, non fermé
+     */
+    private Path2D path(PolyLine polyline) {
+        double a = coordinateChange[0], b = coordinateChange[1];
+        double c = coordinateChange[2], d = coordinateChange[3];
+        int n = polyline.size();
+        Path2D path = new Path2D.Double(Path2D.WIND_NON_ZERO, n);
+        path.moveTo(a * polyline.x(0) + b, c * polyline.y(0) + d);
+        for (int i = 1; i < n; ++i) {
+            path.lineTo(a * polyline.x(i) + b, c * polyline.y(i) + d);
+        }
+        return path;
+    }
+
     /**
      * Méthode qui retourne l'image créée
      * 
@@ -20,8 +20,26 @@ public final class CH1903Projection implements Projection {
      */
     @Override
     public Point project(PointGeo point) {
-        double lambda = 0.0001 * (Math.toDegrees(point.longitude()) * 3600 - 26782.5);
-        double phi = 0.0001 * (Math.toDegrees(point.latitude()) * 3600 - 169028.66);
+        return project(Math.toDegrees(point.longitude()),
+                Math.toDegrees(point.latitude()));
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see ch.epfl.imhof.projection.Projection#project(int, int)
+     */
+    @Override
+    public Point project(int longitude, int latitude) {
+        return project(longitude / 1e7, latitude / 1e7);
+    }
+
+    /**
+     * projette le point de longitude et latitude données, en degrés
+     */
+    private static Point project(double longitude, double latitude) {
+        double lambda = 0.0001 * (longitude * 3600 - 26782.5);
+        double phi = 0.0001 * (latitude * 3600 - 169028.66);
         double phiSquared = phi*phi;
         double phiCubed = phiSquared * phi;
         double lambdaSquared = lambda*lambda;
@@ -19,6 +19,21 @@ public interface Projection {
      */
     Point project(PointGeo point);
 
+    /**
+     * projette un point donné en virgule fixe, comme les coordonnées des
+     * fichiers OSM, sans construire de PointGeo
+     *
+     * @param longitude
+     *            la longitude du point, en 1e-7 degrés
+     * @param latitude
+     *            la latitude du point, en 1e-7 degrés
+     * @return le point donné projeté sur le plan
+     */
+    default Point project(int longitude, int latitude) {
+        return project(new PointGeo(Math.toRadians(longitude / 1e7),
+                Math.toRadians(latitude / 1e7)));
+    }
+
     /**
      * @param point
      *            en coordonnées sphériques